@@ -0,0 +1,89 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link JsonAuthenticationSerializer} with {@link SmileAuthenticationSerializer} for a
+ * {@link UsernamePasswordAuthenticationToken} with a {@link User} principal, authorities and
+ * {@link WebAuthenticationDetails}. The serialized and encrypted sizes are printed once per fork during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthenticationSerializerBenchmark {
+    private static final String KEY_BASE64 = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+
+    private Authentication authentication;
+    private JsonAuthenticationSerializer jsonSerializer;
+    private SmileAuthenticationSerializer smileSerializer;
+    private String json;
+    private String smile;
+
+    @Setup
+    public void setUp() {
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            authorities.add(new SimpleGrantedAuthority("ROLE_" + i));
+        }
+        User principal = new User("username", "password", authorities);
+        UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(principal, null, authorities);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("203.0.113.10");
+        token.setDetails(new WebAuthenticationDetails(request));
+        authentication = token;
+        jsonSerializer = new JsonAuthenticationSerializer();
+        smileSerializer = new SmileAuthenticationSerializer();
+        json = jsonSerializer.serialize(authentication);
+        smile = smileSerializer.serialize(authentication);
+
+        JwtEncryption jwtEncryption = new JwtEncryption(KEY_BASE64);
+        System.out.println();
+        System.out.println("JSON serialized length:  " + json.length()
+                + ", token length: " + jwtEncryption.encryptAndSign(json).length());
+        System.out.println("Smile serialized length: " + smile.length()
+                + ", token length: " + jwtEncryption.encryptAndSign(smile).length());
+    }
+
+    @Benchmark
+    public String serializeJson() {
+        return jsonSerializer.serialize(authentication);
+    }
+
+    @Benchmark
+    public String serializeSmile() {
+        return smileSerializer.serialize(authentication);
+    }
+
+    @Benchmark
+    public Authentication deserializeJson() {
+        return jsonSerializer.deserialize(json);
+    }
+
+    @Benchmark
+    public Authentication deserializeSmile() {
+        return smileSerializer.deserialize(smile);
+    }
+}
@@ -0,0 +1,131 @@
+package au.gov.dto.springframework.security.web.context;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.DirectDecrypter;
+import com.nimbusds.jose.crypto.DirectEncrypter;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost per token of creating the JOSE signer, verifier, encrypter and decrypter on every call (the
+ * previous behaviour of {@link JwtEncryption}) with reusing instances created once, and of nested signed-then-encrypted
+ * tokens with encrypt-only tokens. The difference between the large token benchmarks is the time spent compressing;
+ * {@link JwtEncryption#getCompressionRatio()} reports the size saved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtEncryptionBenchmark {
+    private static final String KEY_BASE64 = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+    private static final String SUBJECT = "{\"@class\":\"org.springframework.security.authentication.UsernamePasswordAuthenticationToken\","
+            + "\"principal\":\"username\",\"credentials\":null,\"authenticated\":true,\"details\":null,"
+            + "\"authorities\":[\"java.util.ArrayList\",[{\"@class\":\"org.springframework.security.core.authority.SimpleGrantedAuthority\",\"role\":\"ROLE_USER\"}]],"
+            + "\"name\":\"username\"}";
+
+    private byte[] key;
+    private JwtEncryption jwtEncryption;
+    private JwtEncryption singleLayerJwtEncryption;
+    private String token;
+    private String singleLayerToken;
+    private String largeSubject;
+    private JwtEncryption compressingJwtEncryption;
+
+    @Setup
+    public void setUp() {
+        key = Base64.getDecoder().decode(KEY_BASE64);
+        jwtEncryption = new JwtEncryption(KEY_BASE64);
+        token = jwtEncryption.encryptAndSign(SUBJECT);
+        singleLayerJwtEncryption = new JwtEncryption(KEY_BASE64);
+        singleLayerJwtEncryption.setNestedSigning(false);
+        singleLayerToken = singleLayerJwtEncryption.encryptAndSign(SUBJECT);
+        StringBuilder authorities = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            authorities.append(i == 0 ? "" : ",")
+                    .append("{\"@class\":\"org.springframework.security.core.authority.SimpleGrantedAuthority\",\"role\":\"ROLE_")
+                    .append(i).append("\"}");
+        }
+        largeSubject = SUBJECT.replace("{\"@class\":\"org.springframework.security.core.authority.SimpleGrantedAuthority\",\"role\":\"ROLE_USER\"}", authorities);
+        compressingJwtEncryption = new JwtEncryption(KEY_BASE64);
+        compressingJwtEncryption.setCompressionThreshold(0);
+    }
+
+    @Benchmark
+    public String encryptAndSignWithNewCryptoObjects() throws Exception {
+        Date date = Date.from(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(3600).toInstant());
+        JWTClaimsSet claimsSet = new JWTClaimsSet.Builder().subject(SUBJECT).expirationTime(date).build();
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claimsSet);
+        signedJWT.sign(new MACSigner(key));
+        JWEHeader jweHeader = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM).contentType("JWT").build();
+        JWEObject jweObject = new JWEObject(jweHeader, new Payload(signedJWT));
+        jweObject.encrypt(new DirectEncrypter(key));
+        return jweObject.serialize();
+    }
+
+    @Benchmark
+    public String encryptAndSignWithReusedCryptoObjects() {
+        return jwtEncryption.encryptAndSign(SUBJECT);
+    }
+
+    @Benchmark
+    public String decryptAndVerifyWithNewCryptoObjects() throws Exception {
+        JWEObject jweObject = JWEObject.parse(token);
+        jweObject.decrypt(new DirectDecrypter(key));
+        SignedJWT signedJWT = jweObject.getPayload().toSignedJWT();
+        if (!signedJWT.verify(new MACVerifier(key))) {
+            throw new IllegalStateException("JWT signature verification failed");
+        }
+        return signedJWT.getJWTClaimsSet().getSubject();
+    }
+
+    @Benchmark
+    public String decryptAndVerifyWithReusedCryptoObjects() {
+        return jwtEncryption.decryptAndVerify(token);
+    }
+
+    @Benchmark
+    public String encryptWithoutNestedSigning() {
+        return singleLayerJwtEncryption.encryptAndSign(SUBJECT);
+    }
+
+    @Benchmark
+    public String decryptWithoutNestedSigning() {
+        return singleLayerJwtEncryption.decryptAndVerify(singleLayerToken);
+    }
+
+    @Benchmark
+    public String encryptLargeTokenWithoutCompression() {
+        return jwtEncryption.encryptAndSign(largeSubject);
+    }
+
+    @Benchmark
+    public String encryptLargeTokenWithCompression() {
+        return compressingJwtEncryption.encryptAndSign(largeSubject);
+    }
+}
@@ -0,0 +1,52 @@
+package au.gov.dto.springframework.security.web.csrf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of generating CSRF tokens from the {@code SecureRandom} shared by all threads (the default
+ * behaviour of {@link CookieCsrfTokenRepository}) with {@link BufferedCsrfTokenValueGenerator}. Run with increasing
+ * thread counts to see the contention on the shared {@code SecureRandom}, for example:
+ * <pre>
+ * ./gradlew jmh -PjmhArgs="CsrfTokenGenerationBenchmark -t 1"
+ * ./gradlew jmh -PjmhArgs="CsrfTokenGenerationBenchmark -t 4"
+ * ./gradlew jmh -PjmhArgs="CsrfTokenGenerationBenchmark -t max"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsrfTokenGenerationBenchmark {
+    private CookieCsrfTokenRepository sharedSecureRandomRepository;
+    private CookieCsrfTokenRepository bufferedGeneratorRepository;
+
+    @Setup
+    public void setUp() {
+        sharedSecureRandomRepository = new CookieCsrfTokenRepository();
+        bufferedGeneratorRepository = new CookieCsrfTokenRepository();
+        bufferedGeneratorRepository.setTokenValueGenerator(new BufferedCsrfTokenValueGenerator());
+    }
+
+    @Benchmark
+    public String sharedSecureRandom() {
+        return sharedSecureRandomRepository.generateToken(null).getToken();
+    }
+
+    @Benchmark
+    public String bufferedGenerator() {
+        return bufferedGeneratorRepository.generateToken(null).getToken();
+    }
+}
@@ -0,0 +1,72 @@
+package org.springframework.security.jackson2;
+
+import au.gov.dto.springframework.security.web.context.JsonAuthenticationSerializer;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single-pass {@link UsernamePasswordAuthenticationTokenDeserializer} with the previous tree-based
+ * approach, which read the whole token into a tree and then re-serialized and re-parsed the principal and authorities.
+ * The baseline binds the principal and authorities with the current deserializers, so it understates the previous cost.
+ * Run with {@code -PjmhArgs="UsernamePasswordAuthenticationTokenDeserializerBenchmark -prof gc"} to compare
+ * allocation per operation ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UsernamePasswordAuthenticationTokenDeserializerBenchmark {
+    private ObjectMapper mapper;
+    private String json;
+
+    @Setup
+    public void setUp() {
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            authorities.add(new SimpleGrantedAuthority("ROLE_" + i));
+        }
+        User principal = new User("username", "password", authorities);
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        mapper = serializer.getObjectMapper();
+        json = serializer.serialize(new UsernamePasswordAuthenticationToken(principal, null, authorities));
+    }
+
+    @Benchmark
+    public Object singlePass() throws IOException {
+        return mapper.readValue(json, Object.class);
+    }
+
+    @Benchmark
+    public Object treeBaseline() throws IOException, ClassNotFoundException {
+        JsonNode jsonNode = mapper.readTree(json);
+        JsonNode principalNode = jsonNode.get("principal");
+        Object principal = mapper.readValue(principalNode.toString(), Class.forName(principalNode.get("@class").asText()));
+        List<GrantedAuthority> authorities = mapper.readValue(jsonNode.get("authorities").toString(), new TypeReference<List<GrantedAuthority>>() {
+        });
+        UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(principal, jsonNode.get("credentials").asText(), authorities);
+        token.setDetails(jsonNode.get("details"));
+        return token;
+    }
+}
@@ -0,0 +1,203 @@
+package au.gov.dto.servlet.http;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The scheme, host and port of a request as the client made it, taken from the RFC 7239 {@code Forwarded} header or
+ * the {@code X-Forwarded-*} headers set by trusted proxies. {@link HttpsOnlyFilter} stores them as a request attribute
+ * when it is configured with trusted proxies, so that later components, such as the cookie-based security
+ * components in this library, can use them instead of asking the servlet container again.
+ * <p>
+ * When the request passed through several proxies, the headers hold one entry per proxy. Entries are examined from
+ * the most recent, added by the proxy that connected to this server, towards the client, stopping at the first entry
+ * whose client address is not a trusted proxy. That entry describes the request the client made. {@code X-Forwarded-*}
+ * headers with a different number of entries from {@code X-Forwarded-For} cannot be lined up with it, so their most
+ * recent entry is used.
+ */
+public final class ForwardedHeaders {
+    public static final String REQUEST_ATTRIBUTE_NAME = ForwardedHeaders.class.getName();
+
+    private final String scheme;
+    private final String host;
+    private final int port;
+
+    ForwardedHeaders(String scheme, String host, int port) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @return the forwarded scheme, host and port of the request, or null if none were stored for the request
+     */
+    public static ForwardedHeaders get(HttpServletRequest request) {
+        Object attribute = request.getAttribute(REQUEST_ATTRIBUTE_NAME);
+        return attribute instanceof ForwardedHeaders ? (ForwardedHeaders) attribute : null;
+    }
+
+    /**
+     * @return whether the client made the request over https, from the forwarded headers if they were stored for the
+     * request, or else {@link HttpServletRequest#isSecure()}
+     */
+    public static boolean isSecure(HttpServletRequest request) {
+        ForwardedHeaders forwardedHeaders = get(request);
+        return forwardedHeaders != null ? forwardedHeaders.isSecure() : request.isSecure();
+    }
+
+    /**
+     * Parses the forwarded headers of a request from a trusted proxy, taking anything the headers do not specify from
+     * the request itself.
+     *
+     * @return the parsed headers, or null if the request has none
+     */
+    static ForwardedHeaders parse(HttpServletRequest request, IpAddressRangeMatcher trustedProxies) {
+        String scheme = null;
+        String host = null;
+        String port = null;
+        List<String> forwarded = readHeaderValues(request, "Forwarded", true);
+        if (!forwarded.isEmpty()) {
+            int index = forwarded.size() - 1;
+            while (index > 0 && trustedProxies.matches(stripPort(getParameter(forwarded.get(index), "for")))) {
+                index--;
+            }
+            scheme = getParameter(forwarded.get(index), "proto");
+            host = getParameter(forwarded.get(index), "host");
+        } else {
+            List<String> forwardedFor = readHeaderValues(request, "X-Forwarded-For", false);
+            List<String> forwardedProto = readHeaderValues(request, "X-Forwarded-Proto", false);
+            List<String> forwardedHost = readHeaderValues(request, "X-Forwarded-Host", false);
+            List<String> forwardedPort = readHeaderValues(request, "X-Forwarded-Port", false);
+            if (forwardedFor.isEmpty() && forwardedProto.isEmpty() && forwardedHost.isEmpty() && forwardedPort.isEmpty()) {
+                return null;
+            }
+            int index = forwardedFor.size() - 1;
+            while (index > 0 && trustedProxies.matches(stripPort(forwardedFor.get(index)))) {
+                index--;
+            }
+            scheme = select(forwardedProto, forwardedFor.size(), index);
+            host = select(forwardedHost, forwardedFor.size(), index);
+            port = select(forwardedPort, forwardedFor.size(), index);
+        }
+
+        scheme = scheme != null ? scheme.toLowerCase(Locale.ENGLISH) : request.getScheme();
+        int parsedPort = -1;
+        if (host != null) {
+            int portIndex = host.lastIndexOf(':');
+            if (portIndex > host.lastIndexOf(']')) {
+                parsedPort = parsePort(host.substring(portIndex + 1));
+                host = host.substring(0, portIndex);
+            }
+        } else {
+            host = request.getServerName();
+        }
+        if (port != null) {
+            parsedPort = parsePort(port);
+        }
+        if (parsedPort < 0) {
+            parsedPort = "https".equals(scheme) ? 443 : "http".equals(scheme) ? 80 : request.getServerPort();
+        }
+        return new ForwardedHeaders(scheme, host, parsedPort);
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isSecure() {
+        return "https".equals(scheme);
+    }
+
+    /**
+     * Reads every value of a header, split into comma-separated entries, in the order the proxies added them.
+     */
+    private static List<String> readHeaderValues(HttpServletRequest request, String headerName, boolean quoted) {
+        List<String> values = new ArrayList<>(2);
+        Enumeration<String> headers = request.getHeaders(headerName);
+        while (headers != null && headers.hasMoreElements()) {
+            String header = headers.nextElement();
+            int start = 0;
+            boolean inQuotes = false;
+            for (int i = 0; i <= header.length(); i++) {
+                char c = i < header.length() ? header.charAt(i) : ',';
+                if (quoted && c == '"') {
+                    inQuotes = !inQuotes;
+                } else if (c == ',' && !inQuotes) {
+                    String value = header.substring(start, i).trim();
+                    if (!value.isEmpty()) {
+                        values.add(value);
+                    }
+                    start = i + 1;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the value of a parameter of a {@code Forwarded} header entry such as
+     * {@code for=192.0.2.60;proto=http;host=example.com}, unquoted, or null if the entry does not have the parameter
+     */
+    private static String getParameter(String forwardedEntry, String parameterName) {
+        int start = 0;
+        while (start < forwardedEntry.length()) {
+            int end = forwardedEntry.indexOf(';', start);
+            if (end < 0) {
+                end = forwardedEntry.length();
+            }
+            int equalsIndex = forwardedEntry.indexOf('=', start);
+            if (equalsIndex > start && equalsIndex < end
+                    && forwardedEntry.substring(start, equalsIndex).trim().equalsIgnoreCase(parameterName)) {
+                String value = forwardedEntry.substring(equalsIndex + 1, end).trim();
+                if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value.isEmpty() ? null : value;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @return the address in a node such as {@code 192.0.2.60:4711} or {@code [2001:db8::1]:4711}, without the port
+     */
+    private static String stripPort(String node) {
+        if (node == null) {
+            return null;
+        }
+        if (node.startsWith("[")) {
+            int closingBracketIndex = node.indexOf(']');
+            return closingBracketIndex > 0 ? node.substring(1, closingBracketIndex) : node;
+        }
+        int colonIndex = node.indexOf(':');
+        return colonIndex >= 0 && colonIndex == node.lastIndexOf(':') ? node.substring(0, colonIndex) : node;
+    }
+
+    private static String select(List<String> values, int forwardedForCount, int forwardedForIndex) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        return values.size() == forwardedForCount ? values.get(forwardedForIndex) : values.get(values.size() - 1);
+    }
+
+    private static int parsePort(String port) {
+        try {
+            int parsedPort = Integer.parseInt(port.trim());
+            return parsedPort > 0 && parsedPort <= 65535 ? parsedPort : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
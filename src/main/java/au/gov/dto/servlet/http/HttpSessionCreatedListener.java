@@ -2,30 +2,184 @@ package au.gov.dto.servlet.http;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.util.StringUtils;
+import org.springframework.util.Assert;
 
 import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Invalidates every {@link javax.servlet.http.HttpSession} as soon as it is created, and reports where sessions are
+ * being created from. Sessions are grouped by call site, identified by a hash of the top frames of the stack that
+ * created them, optionally for only a sample of sessions, see {@link #setSampleInterval(int)}. The stack of each call
+ * site is logged the first time it is recorded, and a summary of the counts per call site is logged
+ * periodically, so that a library creating a session on every request does not flood the logs. The counts are also
+ * available from {@link #getCallSiteCounts()}.
+ */
 public class HttpSessionCreatedListener implements HttpSessionListener {
     private final Log logger = LogFactory.getLog(this.getClass());
+    private final AtomicLong sessionCreatedCount = new AtomicLong();
+    private final LongAdder untrackedSessionCreatedCount = new LongAdder();
+    private final ConcurrentHashMap<Long, CallSite> callSites = new ConcurrentHashMap<>();
+    private final AtomicLong nextSummaryTimeMillis = new AtomicLong();
+
+    private int callSiteFrameCount = 20;
+    private int maxCallSites = 1000;
+    private int sampleInterval = 1;
+    private long summaryIntervalMillis = 60000;
 
     @Override
     public void sessionCreated(HttpSessionEvent event) {
-        String stackTrace = StringUtils.arrayToDelimitedString(Thread.currentThread().getStackTrace(), " ");
-        logger.warn("HttpSession was created: " + stackTrace);
+        long sessionNumber = sessionCreatedCount.incrementAndGet();
+        if ((sessionNumber - 1) % sampleInterval == 0) {
+            recordCallSite();
+        }
+        logSummaryIfDue();
         if (event.getSession() == null) {
             return;
         }
         try {
-            logger.warn("Invalidating unexpected HttpSession");
             event.getSession().invalidate();
         } catch (IllegalStateException e) {
-            logger.warn("Could not invalidate already invalidated HttpSession", e);
+            logger.debug("Could not invalidate already invalidated HttpSession", e);
         }
     }
 
     @Override
     public void sessionDestroyed(HttpSessionEvent event) {
     }
+
+    private void recordCallSite() {
+        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        int start = 0;
+        while (start < stackTrace.length && isOwnFrame(stackTrace[start])) {
+            start++;
+        }
+        int end = Math.min(stackTrace.length, start + callSiteFrameCount);
+        long hash = 1125899906842597L;
+        for (int i = start; i < end; i++) {
+            StackTraceElement frame = stackTrace[i];
+            hash = 31 * hash + frame.getClassName().hashCode();
+            hash = 31 * hash + frame.getMethodName().hashCode();
+            hash = 31 * hash + frame.getLineNumber();
+        }
+        CallSite callSite = callSites.get(hash);
+        if (callSite == null) {
+            if (callSites.size() >= maxCallSites) {
+                untrackedSessionCreatedCount.increment();
+                return;
+            }
+            CallSite newCallSite = new CallSite(String.format("%016x", hash), stackTrace, start, end);
+            callSite = callSites.putIfAbsent(hash, newCallSite);
+            if (callSite == null) {
+                callSite = newCallSite;
+                logger.warn("HttpSession was created and invalidated, from new call site " + callSite.id + ": " + callSite.stackTrace);
+            }
+        }
+        callSite.count.increment();
+    }
+
+    private boolean isOwnFrame(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return Thread.class.getName().equals(className) || HttpSessionCreatedListener.class.getName().equals(className)
+                || getClass().getName().equals(className);
+    }
+
+    private void logSummaryIfDue() {
+        long now = System.currentTimeMillis();
+        long nextSummaryTime = nextSummaryTimeMillis.get();
+        if (now < nextSummaryTime || !nextSummaryTimeMillis.compareAndSet(nextSummaryTime, now + summaryIntervalMillis)) {
+            return;
+        }
+        if (nextSummaryTime == 0) {
+            return;  // The first session starts the first interval
+        }
+        StringBuilder summary = new StringBuilder("HttpSessions created and invalidated: ").append(sessionCreatedCount.get());
+        for (Map.Entry<String, Long> callSiteCount : getCallSiteCounts().entrySet()) {
+            summary.append(", call site ").append(callSiteCount.getKey()).append(": ").append(callSiteCount.getValue());
+        }
+        long untrackedCount = untrackedSessionCreatedCount.sum();
+        if (untrackedCount > 0) {
+            summary.append(", untracked call sites: ").append(untrackedCount);
+        }
+        logger.warn(summary.toString());
+    }
+
+    /**
+     * @return the number of sessions created since the listener started
+     */
+    public long getSessionCreatedCount() {
+        return sessionCreatedCount.get();
+    }
+
+    /**
+     * @return the number of sampled sessions created from each call site, by the call site id logged with its stack
+     */
+    public Map<String, Long> getCallSiteCounts() {
+        Map<String, Long> callSiteCounts = new LinkedHashMap<>();
+        for (CallSite callSite : callSites.values()) {
+            callSiteCounts.put(callSite.id, callSite.count.sum());
+        }
+        return Collections.unmodifiableMap(callSiteCounts);
+    }
+
+    /**
+     * @param callSiteFrameCount the number of stack frames, above this listener, that identify a call site
+     */
+    public void setCallSiteFrameCount(int callSiteFrameCount) {
+        Assert.isTrue(callSiteFrameCount > 0, "callSiteFrameCount must be greater than 0");
+        this.callSiteFrameCount = callSiteFrameCount;
+    }
+
+    /**
+     * @param maxCallSites the maximum number of distinct call sites to track; sessions from further call sites are
+     *                     only counted in total
+     */
+    public void setMaxCallSites(int maxCallSites) {
+        Assert.isTrue(maxCallSites > 0, "maxCallSites must be greater than 0");
+        this.maxCallSites = maxCallSites;
+    }
+
+    /**
+     * Capturing the stack of every session creation is expensive when sessions are created on every request. With a
+     * sample interval of n, only the first session and every nth session after it have their call site recorded, so
+     * a call site that creates a session on every request is still found quickly. Sampling counts sessions across all
+     * call sites, so a call site that rarely creates a session may never be sampled and never be logged. Sessions are
+     * still all counted and invalidated.
+     *
+     * @param sampleInterval how often to record the call site of a created session; 1 by default, which records every
+     *                       session
+     */
+    public void setSampleInterval(int sampleInterval) {
+        Assert.isTrue(sampleInterval > 0, "sampleInterval must be greater than 0");
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * @param summaryIntervalMillis the minimum time between summaries of session creation counts in the log
+     */
+    public void setSummaryIntervalMillis(long summaryIntervalMillis) {
+        Assert.isTrue(summaryIntervalMillis > 0, "summaryIntervalMillis must be greater than 0");
+        this.summaryIntervalMillis = summaryIntervalMillis;
+    }
+
+    private static class CallSite {
+        private final String id;
+        private final String stackTrace;
+        private final LongAdder count = new LongAdder();
+
+        CallSite(String id, StackTraceElement[] stackTrace, int start, int end) {
+            this.id = id;
+            StringBuilder frames = new StringBuilder();
+            for (int i = start; i < end; i++) {
+                frames.append(i > start ? " " : "").append(stackTrace[i]);
+            }
+            this.stackTrace = frames.toString();
+        }
+    }
 }
@@ -2,8 +2,7 @@ package au.gov.dto.servlet.http;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.web.util.UriComponents;
-import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.util.Assert;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -14,18 +13,31 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.util.Collection;
 
 /**
  * Force HTTPS in environments that support it.
  *
  * Inspects the X-Forwarded-Proto header to decide. This header is set by load balancers to inform
- * the proxied application of the protocol used by the client request.
+ * the proxied application of the protocol used by the client request. With trusted proxies configured, the
+ * Forwarded and X-Forwarded-* headers of requests from those proxies are used instead.
+ *
+ * Optionally sends Strict-Transport-Security on https responses, and redirects with a cacheable permanent redirect.
  */
 public class HttpsOnlyFilter implements Filter {
+    private static final String STRICT_TRANSPORT_SECURITY_HEADER_NAME = "Strict-Transport-Security";
+
     private final Log logger = LogFactory.getLog(this.getClass());
 
+    private String redirectUrlPrefix = null;
+    private IpAddressRangeMatcher trustedProxies = null;
+    private int redirectStatus = HttpServletResponse.SC_FOUND;
+    private String permanentRedirectCacheControl = "max-age=86400";
+    private long strictTransportSecurityMaxAgeSeconds = -1;
+    private boolean strictTransportSecurityIncludeSubDomains = false;
+    private boolean strictTransportSecurityPreload = false;
+    private String strictTransportSecurityHeaderValue = null;
+
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
     }
@@ -33,12 +45,18 @@ public class HttpsOnlyFilter implements Filter {
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
-        String forwardedProtocolHeader = request.getHeader("x-forwarded-proto");
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        String forwardedProtocolHeader = getForwardedProtocol(request);
         if ("http".equalsIgnoreCase(forwardedProtocolHeader)) {
             String redirectUrl = getRedirectUrl(request);
-            logger.debug("Redirecting " + request.getRequestURL().toString() + " to " + redirectUrl + " to force https");
-            ((HttpServletResponse) servletResponse).sendRedirect(redirectUrl);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Redirecting " + request.getRequestURL().toString() + " to " + redirectUrl + " to force https");
+            }
+            redirect(response, redirectUrl);
         } else {
+            if (strictTransportSecurityHeaderValue != null && ("https".equalsIgnoreCase(forwardedProtocolHeader) || request.isSecure())) {
+                response.setHeader(STRICT_TRANSPORT_SECURITY_HEADER_NAME, strictTransportSecurityHeaderValue);
+            }
             filterChain.doFilter(servletRequest, servletResponse);
         }
     }
@@ -47,19 +65,145 @@ public class HttpsOnlyFilter implements Filter {
     public void destroy() {
     }
 
+    /**
+     * Without trusted proxies, returns the {@code X-Forwarded-Proto} header from any client. With trusted proxies,
+     * only requests from those proxies have their forwarded headers parsed, and the result is stored as a
+     * {@link ForwardedHeaders} request attribute.
+     */
+    private String getForwardedProtocol(HttpServletRequest request) {
+        if (trustedProxies == null) {
+            return request.getHeader("x-forwarded-proto");
+        }
+        if (!trustedProxies.matches(request.getRemoteAddr())) {
+            return null;
+        }
+        ForwardedHeaders forwardedHeaders = ForwardedHeaders.parse(request, trustedProxies);
+        if (forwardedHeaders == null) {
+            return null;
+        }
+        request.setAttribute(ForwardedHeaders.REQUEST_ATTRIBUTE_NAME, forwardedHeaders);
+        return forwardedHeaders.getScheme();
+    }
+
+    /**
+     * Builds the https URL of the request from the configured canonical host, or else the forwarded host or server
+     * name of the request, and the request URI and query string as received. Any port in the request is dropped.
+     */
     protected String getRedirectUrl(HttpServletRequest request) {
-        String requestUrl = request.getRequestURL().toString();
-        try {
-            URI uri = new URI(requestUrl);
-            UriComponents uriComponents = UriComponentsBuilder.newInstance()
-                    .scheme("https")
-                    .host(uri.getHost())
-                    .path(uri.getPath())
-                    .query(uri.getQuery())
-                    .build();
-            return uriComponents.toUriString();
-        } catch (URISyntaxException e) {
-            throw new RuntimeException("Could not parse URL [" + requestUrl + "]", e);
+        String prefix = redirectUrlPrefix;
+        if (prefix == null) {
+            ForwardedHeaders forwardedHeaders = ForwardedHeaders.get(request);
+            String serverName = forwardedHeaders != null ? forwardedHeaders.getHost() : request.getServerName();
+            prefix = serverName.indexOf(':') >= 0 && !serverName.startsWith("[") ? "https://[" + serverName + "]" : "https://" + serverName;
+        }
+        String requestUri = request.getRequestURI();
+        String queryString = request.getQueryString();
+        StringBuilder redirectUrl = new StringBuilder(prefix.length() + requestUri.length() + (queryString != null ? queryString.length() + 1 : 0));
+        redirectUrl.append(prefix).append(requestUri);
+        if (queryString != null) {
+            redirectUrl.append('?').append(queryString);
+        }
+        return redirectUrl.toString();
+    }
+
+    private void redirect(HttpServletResponse response, String redirectUrl) throws IOException {
+        if (redirectStatus == HttpServletResponse.SC_FOUND) {
+            response.sendRedirect(redirectUrl);
+            return;
+        }
+        response.setStatus(redirectStatus);
+        response.setHeader("Location", redirectUrl);
+        if (redirectStatus == HttpServletResponse.SC_MOVED_PERMANENTLY || redirectStatus == 308) {
+            response.setHeader("Cache-Control", permanentRedirectCacheControl);
+        }
+    }
+
+    /**
+     * Sets the host, optionally with a port, to redirect to, instead of the host the request was made to. This also
+     * avoids redirecting to a host name chosen by the client in the {@code Host} header.
+     *
+     * @param canonicalHost the host to redirect to, such as {@code www.example.com}, or null to use the request host (default)
+     */
+    public void setCanonicalHost(String canonicalHost) {
+        Assert.isTrue(canonicalHost == null || !canonicalHost.contains("/"), "Canonical host must not contain /");
+        this.redirectUrlPrefix = canonicalHost != null ? "https://" + canonicalHost : null;
+    }
+
+    /**
+     * Sets the addresses of the proxies, such as load balancers, whose forwarded headers are trusted. Requests from
+     * these addresses have their RFC 7239 {@code Forwarded} header, or else their {@code X-Forwarded-Proto},
+     * {@code X-Forwarded-Host}, {@code X-Forwarded-Port} and {@code X-Forwarded-For} headers, parsed into
+     * {@link ForwardedHeaders}. The forwarded headers of requests from any other address are ignored.
+     * <p>
+     * Without trusted proxies, the {@code X-Forwarded-Proto} header is trusted from any client, as a client can
+     * only use it to redirect itself.
+     *
+     * @param trustedProxyRanges addresses or CIDR address ranges, such as {@code 10.0.0.0/8} and {@code fd00::/8}, or
+     *                           null to trust {@code X-Forwarded-Proto} from any client (default)
+     */
+    public void setTrustedProxies(Collection<String> trustedProxyRanges) {
+        this.trustedProxies = trustedProxyRanges != null ? new IpAddressRangeMatcher(trustedProxyRanges) : null;
+    }
+
+    /**
+     * Sets the status of the redirect to https. Browsers cache permanent redirects, 301 and 308, and then go straight
+     * to the https URL, so that the plain http listener is not hit again. 308 keeps the request method and body, where
+     * 301 may turn a {@code POST} into a {@code GET}.
+     *
+     * @param redirectStatus 301, 302 (default), 303, 307 or 308
+     */
+    public void setRedirectStatus(int redirectStatus) {
+        Assert.isTrue(redirectStatus == 301 || redirectStatus == 302 || redirectStatus == 303 || redirectStatus == 307
+                || redirectStatus == 308, "Redirect status must be 301, 302, 303, 307 or 308");
+        this.redirectStatus = redirectStatus;
+    }
+
+    /**
+     * @param permanentRedirectMaxAgeSeconds how long clients and caches may keep a 301 or 308 redirect, one day by default
+     */
+    public void setPermanentRedirectMaxAgeSeconds(int permanentRedirectMaxAgeSeconds) {
+        Assert.isTrue(permanentRedirectMaxAgeSeconds >= 0, "permanentRedirectMaxAgeSeconds must not be negative");
+        this.permanentRedirectCacheControl = "max-age=" + permanentRedirectMaxAgeSeconds;
+    }
+
+    /**
+     * Enables the {@code Strict-Transport-Security} header on https responses, which tells browsers to only use https
+     * for the host for the given time. Browsers ignore the header on plain http responses.
+     *
+     * @param strictTransportSecurityMaxAgeSeconds how long browsers should only use https, or a negative value to not
+     *                                             send the header (default)
+     */
+    public void setStrictTransportSecurityMaxAgeSeconds(long strictTransportSecurityMaxAgeSeconds) {
+        this.strictTransportSecurityMaxAgeSeconds = strictTransportSecurityMaxAgeSeconds;
+        updateStrictTransportSecurityHeaderValue();
+    }
+
+    public void setStrictTransportSecurityIncludeSubDomains(boolean strictTransportSecurityIncludeSubDomains) {
+        this.strictTransportSecurityIncludeSubDomains = strictTransportSecurityIncludeSubDomains;
+        updateStrictTransportSecurityHeaderValue();
+    }
+
+    /**
+     * Adds the {@code preload} directive, which consents to the host being added to the HSTS preload lists built into
+     * browsers. Preloading also requires {@code includeSubDomains} and a max age of at least a year.
+     */
+    public void setStrictTransportSecurityPreload(boolean strictTransportSecurityPreload) {
+        this.strictTransportSecurityPreload = strictTransportSecurityPreload;
+        updateStrictTransportSecurityHeaderValue();
+    }
+
+    private void updateStrictTransportSecurityHeaderValue() {
+        if (strictTransportSecurityMaxAgeSeconds < 0) {
+            strictTransportSecurityHeaderValue = null;
+            return;
+        }
+        StringBuilder headerValue = new StringBuilder("max-age=").append(strictTransportSecurityMaxAgeSeconds);
+        if (strictTransportSecurityIncludeSubDomains) {
+            headerValue.append("; includeSubDomains");
+        }
+        if (strictTransportSecurityPreload) {
+            headerValue.append("; preload");
         }
+        strictTransportSecurityHeaderValue = headerValue.toString();
     }
 }
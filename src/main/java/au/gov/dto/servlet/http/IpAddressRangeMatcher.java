@@ -0,0 +1,243 @@
+package au.gov.dto.servlet.http;
+
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Matches IPv4 and IPv6 addresses against a set of address ranges in CIDR notation, such as {@code 10.0.0.0/8} or
+ * {@code fd00::/8}. The ranges are compiled into a binary trie over the 128 bits of an IPv6 address, with IPv4 ranges
+ * stored as IPv4-mapped IPv6 ranges, so IPv4 addresses given in their IPv6-mapped form ({@code ::ffff:10.1.2.3}) match
+ * the IPv4 ranges too. Matching does not allocate.
+ */
+public final class IpAddressRangeMatcher {
+    private static final int GROUPS = 8;
+    private static final int IPV4_MAPPED_PREFIX_LENGTH = 96;
+    private static final ThreadLocal<int[]> SCRATCH_GROUPS = ThreadLocal.withInitial(() -> new int[GROUPS]);
+
+    private int[] zeroChildren = new int[64];
+    private int[] oneChildren = new int[64];
+    private boolean[] terminal = new boolean[64];
+    private int nodeCount = 1;
+
+    /**
+     * @param ranges addresses or address ranges in CIDR notation; an address without a prefix length matches only itself
+     */
+    public IpAddressRangeMatcher(Collection<String> ranges) {
+        Assert.notNull(ranges);
+        int[] groups = new int[GROUPS];
+        for (String range : ranges) {
+            Assert.hasText(range, "Address range must not be empty");
+            int slashIndex = range.indexOf('/');
+            String address = slashIndex >= 0 ? range.substring(0, slashIndex) : range;
+            Arrays.fill(groups, 0);
+            int family = parse(address, 0, address.length(), groups);
+            Assert.isTrue(family != 0, "Invalid address range: " + range);
+            int maxPrefixLength = family == 4 ? 32 : 128;
+            int prefixLength = maxPrefixLength;
+            if (slashIndex >= 0) {
+                try {
+                    prefixLength = Integer.parseInt(range.substring(slashIndex + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid address range: " + range, e);
+                }
+                Assert.isTrue(prefixLength >= 0 && prefixLength <= maxPrefixLength, "Invalid prefix length in address range: " + range);
+            }
+            insert(groups, family == 4 ? IPV4_MAPPED_PREFIX_LENGTH + prefixLength : prefixLength);
+        }
+    }
+
+    /**
+     * @param address an IPv4 or IPv6 address, optionally in square brackets or with an IPv6 zone id
+     * @return true if the address is in one of the ranges, false if it is not or is not a valid address
+     */
+    public boolean matches(String address) {
+        if (address == null) {
+            return false;
+        }
+        int start = 0;
+        int end = address.length();
+        if (end > 1 && address.charAt(0) == '[' && address.charAt(end - 1) == ']') {
+            start = 1;
+            end--;
+        }
+        int[] groups = SCRATCH_GROUPS.get();
+        Arrays.fill(groups, 0);
+        if (parse(address, start, end, groups) == 0) {
+            return false;
+        }
+        int node = 0;
+        for (int bit = 0; bit < GROUPS * 16; bit++) {
+            if (terminal[node]) {
+                return true;
+            }
+            node = isSet(groups, bit) ? oneChildren[node] : zeroChildren[node];
+            if (node == 0) {
+                return false;
+            }
+        }
+        return terminal[node];
+    }
+
+    private void insert(int[] groups, int prefixLength) {
+        int node = 0;
+        for (int bit = 0; bit < prefixLength; bit++) {
+            boolean one = isSet(groups, bit);
+            int child = one ? oneChildren[node] : zeroChildren[node];
+            if (child == 0) {
+                // addNode() may replace the arrays, so the new child is linked into the current ones
+                child = addNode();
+                if (one) {
+                    oneChildren[node] = child;
+                } else {
+                    zeroChildren[node] = child;
+                }
+            }
+            node = child;
+        }
+        terminal[node] = true;
+    }
+
+    private int addNode() {
+        if (nodeCount == terminal.length) {
+            zeroChildren = Arrays.copyOf(zeroChildren, nodeCount * 2);
+            oneChildren = Arrays.copyOf(oneChildren, nodeCount * 2);
+            terminal = Arrays.copyOf(terminal, nodeCount * 2);
+        }
+        return nodeCount++;
+    }
+
+    private static boolean isSet(int[] groups, int bit) {
+        return (groups[bit >> 4] & (0x8000 >>> (bit & 15))) != 0;
+    }
+
+    /**
+     * Parses an address into eight 16-bit groups, IPv4 addresses being mapped to {@code ::ffff:a.b.c.d}.
+     *
+     * @return 4 or 6 for a valid IPv4 or IPv6 address, or 0 if the address is not valid
+     */
+    static int parse(String address, int start, int end, int[] groups) {
+        int zoneIndex = address.indexOf('%', start);
+        if (zoneIndex >= 0 && zoneIndex < end) {
+            end = zoneIndex;
+        }
+        if (start >= end) {
+            return 0;
+        }
+        int colonIndex = address.indexOf(':', start);
+        if (colonIndex < 0 || colonIndex >= end) {
+            groups[5] = 0xffff;
+            return parseIpv4(address, start, end, groups, 6) ? 4 : 0;
+        }
+        return parseIpv6(address, start, end, groups) ? 6 : 0;
+    }
+
+    private static boolean parseIpv6(String address, int start, int end, int[] groups) {
+        int groupCount = 0;
+        int gapIndex = -1;
+        int i = start;
+        if (end - start >= 2 && address.charAt(start) == ':' && address.charAt(start + 1) == ':') {
+            gapIndex = 0;
+            i += 2;
+        }
+        while (i < end) {
+            int value = 0;
+            int j = i;
+            while (j < end && j - i <= 4) {
+                int digit = hexDigit(address.charAt(j));
+                if (digit < 0) {
+                    break;
+                }
+                value = value << 4 | digit;
+                j++;
+            }
+            if (j < end && address.charAt(j) == '.') {
+                if (groupCount > GROUPS - 2 || !parseIpv4(address, i, end, groups, groupCount)) {
+                    return false;
+                }
+                groupCount += 2;
+                break;
+            }
+            if (j == i || j - i > 4 || groupCount == GROUPS) {
+                return false;
+            }
+            groups[groupCount++] = value;
+            if (j == end) {
+                break;
+            }
+            if (address.charAt(j) != ':') {
+                return false;
+            }
+            if (j + 1 < end && address.charAt(j + 1) == ':') {
+                if (gapIndex >= 0) {
+                    return false;
+                }
+                gapIndex = groupCount;
+                i = j + 2;
+            } else {
+                i = j + 1;
+                if (i == end) {
+                    return false;
+                }
+            }
+        }
+        if (gapIndex < 0) {
+            return groupCount == GROUPS;
+        }
+        if (groupCount == GROUPS) {
+            return false;
+        }
+        int gapLength = GROUPS - groupCount;
+        for (int k = groupCount - 1; k >= gapIndex; k--) {
+            groups[k + gapLength] = groups[k];
+        }
+        for (int k = gapIndex; k < gapIndex + gapLength; k++) {
+            groups[k] = 0;
+        }
+        return true;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean parseIpv4(String address, int start, int end, int[] groups, int groupIndex) {
+        int octetCount = 0;
+        int value = 0;
+        int i = start;
+        while (octetCount < 4) {
+            int octet = 0;
+            int j = i;
+            while (j < end && j - i < 3 && address.charAt(j) >= '0' && address.charAt(j) <= '9') {
+                octet = octet * 10 + (address.charAt(j) - '0');
+                j++;
+            }
+            if (j == i || octet > 255) {
+                return false;
+            }
+            value = value << 8 | octet;
+            octetCount++;
+            if (octetCount < 4) {
+                if (j >= end || address.charAt(j) != '.') {
+                    return false;
+                }
+                i = j + 1;
+            } else if (j != end) {
+                return false;
+            }
+        }
+        groups[groupIndex] = value >>> 16;
+        groups[groupIndex + 1] = value & 0xffff;
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package au.gov.dto.servlet.http;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the cookies on a request by name, built on first use and stored as a request attribute so that the
+ * cookie-based security components can look up their cookies without each scanning {@link HttpServletRequest#getCookies()}.
+ * <p>
+ * When a request carries several cookies with the same name, the first one wins, as with a linear scan. The index is
+ * rebuilt if the array returned by {@link HttpServletRequest#getCookies()} changes, for example when the request is
+ * wrapped.
+ */
+public final class RequestCookies {
+    static final String REQUEST_ATTRIBUTE_NAME = RequestCookies.class.getName();
+
+    private static final RequestCookies EMPTY = new RequestCookies(null, Collections.emptyMap());
+
+    private final Cookie[] cookies;
+    private final Map<String, String> values;
+
+    private RequestCookies(Cookie[] cookies, Map<String, String> values) {
+        this.cookies = cookies;
+        this.values = values;
+    }
+
+    /**
+     * @return the cookie index for the request, never null
+     */
+    public static RequestCookies of(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null || cookies.length == 0) {
+            return EMPTY;
+        }
+        Object attribute = request.getAttribute(REQUEST_ATTRIBUTE_NAME);
+        if (attribute instanceof RequestCookies && ((RequestCookies) attribute).cookies == cookies) {
+            return (RequestCookies) attribute;
+        }
+        Map<String, String> values = new HashMap<>(cookies.length * 2);
+        for (Cookie cookie : cookies) {
+            if (cookie != null && cookie.getName() != null && !values.containsKey(cookie.getName())) {
+                values.put(cookie.getName(), cookie.getValue());
+            }
+        }
+        RequestCookies requestCookies = new RequestCookies(cookies, values);
+        request.setAttribute(REQUEST_ATTRIBUTE_NAME, requestCookies);
+        return requestCookies;
+    }
+
+    /**
+     * @return the value of the first cookie with the given name, or null if there is no such cookie
+     */
+    public String getValue(String name) {
+        return values.get(name);
+    }
+
+    public boolean contains(String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * @return the names of the cookies on the request
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+}
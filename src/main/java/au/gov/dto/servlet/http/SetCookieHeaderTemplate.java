@@ -0,0 +1,88 @@
+package au.gov.dto.servlet.http;
+
+import org.springframework.util.Assert;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes {@code Set-Cookie} response headers directly from cookie attributes formatted once, when the template is
+ * created, instead of building a {@link javax.servlet.http.Cookie} that the servlet container validates and formats
+ * on every response. Unlike the Servlet 3.0 cookie API, the template also supports the {@code SameSite} attribute.
+ * <p>
+ * Cookie names and values are written as given, so they must already be valid cookie tokens and values, such as the
+ * base64 and base64url encoded values written by the components in this library.
+ */
+public final class SetCookieHeaderTemplate {
+    public static final String SET_COOKIE_HEADER_NAME = "Set-Cookie";
+
+    private static final String EXPIRED_ATTRIBUTES = "; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT";
+
+    private final String attributes;
+    private final String secureAttributes;
+    private final String expiredAttributes;
+    private final String expiredSecureAttributes;
+
+    /**
+     * @param path the cookie path, or null to omit it
+     * @param maxAgeSeconds the cookie max age, or a negative value for a session cookie
+     * @param httpOnly whether the cookie is hidden from scripts
+     * @param sameSite {@code Strict}, {@code Lax} or {@code None}, or null to omit the attribute; browsers reject a
+     *                 {@code SameSite=None} cookie that is not {@code Secure}, so with {@code None} every cookie is
+     *                 written as {@code Secure}
+     */
+    public SetCookieHeaderTemplate(String path, int maxAgeSeconds, boolean httpOnly, String sameSite) {
+        StringBuilder pathAttribute = new StringBuilder();
+        if (path != null) {
+            assertValidAttributeValue(path);
+            pathAttribute.append("; Path=").append(path);
+        }
+        StringBuilder trailingAttributes = new StringBuilder();
+        if (httpOnly) {
+            trailingAttributes.append("; HttpOnly");
+        }
+        String normalizedSameSite = sameSite != null ? normalizeSameSite(sameSite) : null;
+        if (normalizedSameSite != null) {
+            trailingAttributes.append("; SameSite=").append(normalizedSameSite);
+        }
+        String maxAgeAttribute = maxAgeSeconds >= 0 ? "; Max-Age=" + maxAgeSeconds : "";
+        this.secureAttributes = pathAttribute + maxAgeAttribute + "; Secure" + trailingAttributes;
+        this.expiredSecureAttributes = pathAttribute + EXPIRED_ATTRIBUTES + "; Secure" + trailingAttributes;
+        if ("None".equals(normalizedSameSite)) {
+            this.attributes = secureAttributes;
+            this.expiredAttributes = expiredSecureAttributes;
+        } else {
+            this.attributes = pathAttribute + maxAgeAttribute + trailingAttributes;
+            this.expiredAttributes = pathAttribute + EXPIRED_ATTRIBUTES + trailingAttributes;
+        }
+    }
+
+    public void addCookie(HttpServletResponse response, String name, String value, boolean secure) {
+        response.addHeader(SET_COOKIE_HEADER_NAME, format(name, value, secure ? secureAttributes : attributes));
+    }
+
+    public void addExpiredCookie(HttpServletResponse response, String name, boolean secure) {
+        response.addHeader(SET_COOKIE_HEADER_NAME, format(name, "", secure ? expiredSecureAttributes : expiredAttributes));
+    }
+
+    private static String format(String name, String value, String attributes) {
+        return new StringBuilder(name.length() + 1 + value.length() + attributes.length())
+                .append(name).append('=').append(value).append(attributes)
+                .toString();
+    }
+
+    private static String normalizeSameSite(String sameSite) {
+        for (String value : new String[]{"Strict", "Lax", "None"}) {
+            if (value.equalsIgnoreCase(sameSite)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("SameSite must be Strict, Lax or None: " + sameSite);
+    }
+
+    private static void assertValidAttributeValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            Assert.isTrue(c >= 0x20 && c < 0x7f && c != ';', "Invalid character in cookie attribute value: " + value);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.util.Assert;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A versioned table of well-known authority strings, used by {@link JsonAuthenticationSerializer} to replace each
+ * serialized collection of {@link SimpleGrantedAuthority} objects with a compact list of integer ids, as the
+ * collection is written. Authorities missing from the dictionary are written as literal strings.
+ * <p>
+ * The id of an authority is its position in the list, so the version must be changed whenever an existing entry is
+ * removed or reordered. Appending entries keeps existing tokens valid. Tokens written with a different version are
+ * rejected when read.
+ */
+public class AuthorityDictionary implements AuthorityIds {
+    private final int version;
+    private final String[] authorities;
+    private final Map<String, Integer> ids;
+
+    public AuthorityDictionary(int version, List<String> authorities) {
+        Assert.notNull(authorities);
+        this.version = version;
+        this.authorities = authorities.toArray(new String[authorities.size()]);
+        this.ids = new HashMap<>(authorities.size() * 2);
+        for (int i = 0; i < this.authorities.length; i++) {
+            Assert.notNull(this.authorities[i], "Authority dictionary must not contain null");
+            Integer previous = this.ids.put(this.authorities[i], i);
+            Assert.isNull(previous, "Duplicate authority in dictionary: " + this.authorities[i]);
+        }
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the id of the given authority, or -1 if it is not in the dictionary
+     */
+    @Override
+    public int getId(String authority) {
+        Integer id = ids.get(authority);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return the authority with the given id, or null if there is no such id
+     */
+    @Override
+    public String getAuthority(int id) {
+        return id >= 0 && id < authorities.length ? authorities[id] : null;
+    }
+}
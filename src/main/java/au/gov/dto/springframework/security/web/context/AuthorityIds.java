@@ -0,0 +1,22 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * A versioned mapping between authority strings and integer ids, used by {@link GrantedAuthoritiesSerializer} to
+ * write collections of {@link SimpleGrantedAuthority} compactly, and by the authentication deserializers to read them
+ * back.
+ */
+public interface AuthorityIds {
+    int getVersion();
+
+    /**
+     * @return the id of the given authority, or a negative number if it has none
+     */
+    int getId(String authority);
+
+    /**
+     * @return the authority with the given id, or null if there is no such id
+     */
+    String getAuthority(int id);
+}
@@ -0,0 +1,88 @@
+package au.gov.dto.springframework.security.web.context;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes and reads a collection of authorities as {@code {"@dictionary":version,"@authorities":[ids]}}, the format
+ * {@link GrantedAuthoritiesSerializer} uses while {@link AuthorityIds} are supplied. Authorities that have no id are
+ * written as strings.
+ */
+public final class AuthorityIdsFormat {
+    private static final String VERSION_FIELD = "@dictionary";
+    private static final String IDS_FIELD = "@authorities";
+
+    private AuthorityIdsFormat() {
+    }
+
+    public static void write(Collection<? extends GrantedAuthority> authorities, AuthorityIds ids, JsonGenerator jgen) throws IOException {
+        jgen.writeStartObject();
+        jgen.writeNumberField(VERSION_FIELD, ids.getVersion());
+        jgen.writeArrayFieldStart(IDS_FIELD);
+        for (GrantedAuthority authority : authorities) {
+            int id = ids.getId(authority.getAuthority());
+            if (id >= 0) {
+                jgen.writeNumber(id);
+            } else {
+                jgen.writeString(authority.getAuthority());
+            }
+        }
+        jgen.writeEndArray();
+        jgen.writeEndObject();
+    }
+
+    /**
+     * @return whether a parser positioned at the first field of an object is reading authorities written as ids
+     */
+    public static boolean isAuthorityIds(JsonParser parser) throws IOException {
+        return parser.getCurrentToken() == JsonToken.FIELD_NAME
+                && (VERSION_FIELD.equals(parser.getCurrentName()) || IDS_FIELD.equals(parser.getCurrentName()));
+    }
+
+    /**
+     * Reads the remaining fields of an object for which {@link #isAuthorityIds(JsonParser)} is true.
+     *
+     * @param authorityIds the ids to resolve the authorities with, or null if there are none
+     * @throws AuthorityIdsMismatchException if the authorities were written with ids that {@code authorityIds} cannot
+     *                                       resolve
+     */
+    public static Collection<? extends GrantedAuthority> read(JsonParser parser, AuthorityIds authorityIds) throws IOException {
+        if (IDS_FIELD.equals(parser.getCurrentName())) {
+            // Written by earlier versions, which recorded the version once on the root object
+            throw new AuthorityIdsMismatchException("Authorities were written with unversioned authority ids");
+        }
+        parser.nextToken();
+        if (authorityIds == null || parser.getCurrentToken() != JsonToken.VALUE_NUMBER_INT || parser.getIntValue() != authorityIds.getVersion()) {
+            throw new AuthorityIdsMismatchException("Authorities were written with authority ids version " + parser.getText()
+                    + (authorityIds != null ? ", not " + authorityIds.getVersion() : ", but no authority ids are set"));
+        }
+        List<String> roles = new ArrayList<>();
+        for (JsonToken token = parser.nextToken(); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            String fieldName = parser.getCurrentName();
+            if (parser.nextToken() != JsonToken.START_ARRAY || !IDS_FIELD.equals(fieldName)) {
+                parser.skipChildren();
+                continue;
+            }
+            for (token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                String role = null;
+                if (token == JsonToken.VALUE_NUMBER_INT) {
+                    role = authorityIds.getAuthority(parser.getIntValue());
+                } else if (token == JsonToken.VALUE_STRING) {
+                    role = parser.getText();
+                }
+                if (role == null) {
+                    throw new AuthorityIdsMismatchException("Unknown authority id " + parser.getText());
+                }
+                roles.add(role);
+            }
+        }
+        return GrantedAuthorityInterner.intern(roles);
+    }
+}
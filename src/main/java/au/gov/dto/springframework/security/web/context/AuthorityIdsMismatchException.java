@@ -0,0 +1,13 @@
+package au.gov.dto.springframework.security.web.context;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+
+/**
+ * Thrown when a collection of authorities was written with {@link AuthorityIds} that the reader does not have: another
+ * version, an id the reader does not know, or none at all.
+ */
+public class AuthorityIdsMismatchException extends JsonMappingException {
+    public AuthorityIdsMismatchException(String message) {
+        super(message);
+    }
+}
@@ -1,18 +1,30 @@
 package au.gov.dto.springframework.security.web.context;
 
+import au.gov.dto.servlet.http.ForwardedHeaders;
+import au.gov.dto.servlet.http.RequestCookies;
+import au.gov.dto.servlet.http.SetCookieHeaderTemplate;
+import au.gov.dto.springframework.security.web.util.matcher.PathPrefixRequestMatcher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.context.HttpRequestResponseHolder;
 import org.springframework.security.web.context.SaveContextOnUpdateOrErrorResponseWrapper;
 import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.util.Assert;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Arrays;
-import java.util.Optional;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * Adapted from oakfusion/spring-cookie-session under the MIT license:
@@ -21,12 +33,36 @@ import java.util.Optional;
 public class CookieSecurityContextRepository implements SecurityContextRepository {
     public static final String DEFAULT_AUTHENTICATION_COOKIE_NAME = "authentication";
 
+    /**
+     * The request attribute holding the identifier of the authentication token loaded for the request. The identifier
+     * is random, is assigned when a new {@link Authentication} is saved, and is kept while the same authentication is
+     * re-issued, so it identifies one login. It is only set when the {@link TokenEncryption} stores identifiers.
+     */
+    public static final String AUTHENTICATION_TOKEN_ID_ATTRIBUTE_NAME = CookieSecurityContextRepository.class.getName() + ".AUTHENTICATION_TOKEN_ID";
+
+    private static final SecureRandom TOKEN_ID_RANDOM = new SecureRandom();
+
+    private static final AuthenticationCookies NO_AUTHENTICATION_COOKIES = new AuthenticationCookies(null, false, 0, Collections.emptyList());
+
+    private final Log logger = LogFactory.getLog(this.getClass());
     private final TokenEncryption tokenEncryption;
 
     private AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
     private String authenticationCookieName = DEFAULT_AUTHENTICATION_COOKIE_NAME;
     private String authenticationCookiePath = null;
     private int authenticationCookieMaxAgeSeconds = 3600;
+    private int authenticationCookieChunkSize = 4000;
+    private int maxAuthenticationCookieBytes = 8000;
+    private boolean saveOnlyIfChanged = false;
+    private VerifiedTokenCache verifiedTokenCache = null;
+    private boolean lazyLoadContext = false;
+    private RequestMatcher ignoredRequestMatcher = null;
+    private final LongAdder skippedSaveCount = new LongAdder();
+    private volatile String[] chunkCookieNames = null;
+    private boolean writeSetCookieHeaders = false;
+    private String authenticationCookieSameSite = null;
+    private volatile SetCookieHeaderTemplate setCookieHeaderTemplate = null;
+    private SecurityContextMetrics metrics = SecurityContextMetrics.NO_OP;
 
     public CookieSecurityContextRepository(TokenEncryption tokenEncryption) {
         Assert.notNull(tokenEncryption);
@@ -51,23 +87,74 @@ public class CookieSecurityContextRepository implements SecurityContextRepositor
     @Override
     public SecurityContext loadContext(HttpRequestResponseHolder requestResponseHolder) {
         HttpServletRequest request = requestResponseHolder.getRequest();
-        HttpServletResponse response = requestResponseHolder.getResponse();
-        requestResponseHolder.setResponse(new SaveToCookieResponseWrapper(request, response));
-        Cookie authenticationCookie = getAuthenticationCookie(request);
-        if (authenticationCookie == null) {
+        if (ignoredRequestMatcher != null && ignoredRequestMatcher.matches(request)) {
             return SecurityContextHolder.createEmptyContext();
         }
-        String serialisedAuthentication = tokenEncryption.decryptAndVerify(authenticationCookie.getValue());
-        if (serialisedAuthentication == null) {
-            response.addCookie(createExpireAuthenticationCookie(request));
+        HttpServletResponse response = requestResponseHolder.getResponse();
+        AuthenticationCookies authenticationCookies = readAuthenticationCookies(request);
+        SaveToCookieResponseWrapper responseWrapper = new SaveToCookieResponseWrapper(request, response, authenticationCookies);
+        requestResponseHolder.setResponse(responseWrapper);
+        String encryptedToken = authenticationCookies.getValue();
+        if (encryptedToken == null) {
+            metrics.recordOutcome(SecurityContextMetrics.Outcome.MISSING);
             return SecurityContextHolder.createEmptyContext();
         }
-        Authentication authentication = authenticationSerializer.deserialize(serialisedAuthentication);
+        metrics.recordReadCookieSize(encryptedToken.length());
+        if (lazyLoadContext) {
+            // The response may be committed by the time the context is read, so a rejected token is expired in saveContext
+            return new LazySecurityContext(() -> loadAuthentication(encryptedToken, request, null, authenticationCookies, responseWrapper));
+        }
         SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
-        securityContext.setAuthentication(authentication);
+        securityContext.setAuthentication(loadAuthentication(encryptedToken, request, response, authenticationCookies, responseWrapper));
         return securityContext;
     }
 
+    private Authentication loadAuthentication(String encryptedToken, HttpServletRequest request, HttpServletResponse response, AuthenticationCookies authenticationCookies, SaveToCookieResponseWrapper responseWrapper) {
+        VerifiedTokenCache.Key cacheKey = verifiedTokenCache != null ? VerifiedTokenCache.createKey(encryptedToken) : null;
+        VerifiedTokenCache.Entry cachedEntry = cacheKey != null ? verifiedTokenCache.get(cacheKey) : null;
+        if (cachedEntry != null) {
+            Authentication authentication = deserializeAuthentication(cachedEntry.getToken());
+            metrics.recordOutcome(authentication != null ? SecurityContextMetrics.Outcome.CACHED : SecurityContextMetrics.Outcome.DISCARDED);
+            responseWrapper.setLoadedAuthentication(authentication, cachedEntry.getRefreshTimeMillis(), cachedEntry.getTokenId());
+            return authentication;
+        }
+        VerifiedToken verifiedToken = tokenEncryption.decryptAndVerifyToken(encryptedToken);
+        if (verifiedToken == null) {
+            metrics.recordOutcome(SecurityContextMetrics.Outcome.REJECTED);
+            if (response != null) {
+                expireAuthenticationCookies(request, response, authenticationCookies);
+            }
+            return null;
+        }
+        Authentication authentication = deserializeAuthentication(verifiedToken.getToken());
+        metrics.recordOutcome(authentication != null ? SecurityContextMetrics.Outcome.LOADED : SecurityContextMetrics.Outcome.DISCARDED);
+        if (cacheKey != null && authentication != null) {
+            verifiedTokenCache.put(cacheKey, verifiedToken);
+        }
+        responseWrapper.setLoadedAuthentication(authentication, verifiedToken.getRefreshTimeMillis(), verifiedToken.getTokenId());
+        return authentication;
+    }
+
+    private String serializeAuthentication(Authentication authentication) {
+        long startNanos = System.nanoTime();
+        String serializedAuthentication = authenticationSerializer.serialize(authentication);
+        metrics.recordLatency(SecurityContextMetrics.Phase.SERIALIZE, System.nanoTime() - startNanos);
+        return serializedAuthentication;
+    }
+
+    private Authentication deserializeAuthentication(String token) {
+        long startNanos = System.nanoTime();
+        Authentication authentication;
+        try {
+            authentication = authenticationSerializer.deserialize(token);
+        } catch (RuntimeException e) {
+            metrics.recordOutcome(SecurityContextMetrics.Outcome.PARSE_ERROR);
+            throw e;
+        }
+        metrics.recordLatency(SecurityContextMetrics.Phase.DESERIALIZE, System.nanoTime() - startNanos);
+        return authentication;
+    }
+
     /**
      * Stores the security context on completion of a request.
      *
@@ -77,6 +164,9 @@ public class CookieSecurityContextRepository implements SecurityContextRepositor
      */
     @Override
     public void saveContext(SecurityContext securityContext, HttpServletRequest request, HttpServletResponse response) {
+        if (!(response instanceof SaveToCookieResponseWrapper)) {
+            return;  // Ignored request
+        }
         SaveToCookieResponseWrapper responseWrapper = (SaveToCookieResponseWrapper) response;
         if (!responseWrapper.isContextSaved()) {
             responseWrapper.saveContext(securityContext);
@@ -92,7 +182,7 @@ public class CookieSecurityContextRepository implements SecurityContextRepositor
      */
     @Override
     public boolean containsContext(HttpServletRequest request) {
-        return getAuthenticationCookie(request) != null;
+        return readAuthenticationCookies(request).isPresent();
     }
 
     public void setAuthenticationSerializer(AuthenticationSerializer authenticationSerializer) {
@@ -101,61 +191,503 @@ public class CookieSecurityContextRepository implements SecurityContextRepositor
 
     public void setAuthenticationCookieName(String authenticationCookieName) {
         this.authenticationCookieName = authenticationCookieName;
+        this.chunkCookieNames = null;
     }
 
     public void setAuthenticationCookiePath(String authenticationCookiePath) {
         this.authenticationCookiePath = authenticationCookiePath;
+        this.setCookieHeaderTemplate = null;
     }
 
     public void setAuthenticationCookieMaxAgeSeconds(int authenticationCookieMaxAgeSeconds) {
         this.authenticationCookieMaxAgeSeconds = authenticationCookieMaxAgeSeconds;
+        this.setCookieHeaderTemplate = null;
     }
 
-    private Cookie getAuthenticationCookie(HttpServletRequest request) {
-        if (request.getCookies() == null) {
-            return null;
+    /**
+     * Sets the maximum length of a single authentication cookie value. Tokens longer than this are split across
+     * several cookies named after the authentication cookie with the suffixes {@code _0}, {@code _1}, and so on,
+     * which are reassembled when the security context is loaded. Browsers typically limit a cookie, including its
+     * name and attributes, to 4096 bytes.
+     *
+     * @param authenticationCookieChunkSize the maximum length of a cookie value, or 0 to never split the token
+     */
+    public void setAuthenticationCookieChunkSize(int authenticationCookieChunkSize) {
+        this.authenticationCookieChunkSize = authenticationCookieChunkSize;
+        this.chunkCookieNames = null;
+    }
+
+    /**
+     * Sets the maximum total length of the authentication cookie values when the token is split across several
+     * cookies. A token longer than this is not stored and the user is logged out. Raising this beyond the default may
+     * also require raising the maximum request header size of the servlet container.
+     *
+     * @param maxAuthenticationCookieBytes the maximum total length of the authentication cookie values
+     */
+    public void setMaxAuthenticationCookieBytes(int maxAuthenticationCookieBytes) {
+        Assert.isTrue(maxAuthenticationCookieBytes > 0, "maxAuthenticationCookieBytes must be greater than 0");
+        this.maxAuthenticationCookieBytes = maxAuthenticationCookieBytes;
+        this.chunkCookieNames = null;
+    }
+
+    /**
+     * When enabled, the authentication cookie is not written if the {@link Authentication} on the security context is
+     * the instance that was loaded from the request cookie and still serializes as it did when loaded, so changes made
+     * to it in place, such as {@code setDetails} or {@code setAuthenticated(false)}, are still saved. This avoids
+     * signing and encrypting a new token on every response, at the cost of serializing the authentication once when
+     * it is loaded and once when it is saved, but means the token expiry no longer slides forward on each request.
+     * Use {@link JwtEncryption#setRefreshThreshold(double)} to re-issue unchanged tokens as they approach expiry.
+     *
+     * @param saveOnlyIfChanged true to skip saving an unchanged security context, false to always save (default)
+     */
+    public void setSaveOnlyIfChanged(boolean saveOnlyIfChanged) {
+        this.saveOnlyIfChanged = saveOnlyIfChanged;
+    }
+
+    /**
+     * Sets a cache of tokens that have already been decrypted and verified, so that repeated requests presenting the
+     * same cookie skip that work. Each request still deserializes its own {@link Authentication}, so no instance is
+     * shared between requests.
+     * <p>
+     * A cached token is only checked against the expiry time it had when it was first verified: the
+     * {@link JwtClaimsSetVerifier}s of {@link JwtEncryption} are not run again on a cache hit. Do not use the cache
+     * with verifiers whose result can change during the lifetime of a token, such as a revocation list.
+     *
+     * @param verifiedTokenCache the cache to use, or null to disable caching (default)
+     */
+    public void setVerifiedTokenCache(VerifiedTokenCache verifiedTokenCache) {
+        this.verifiedTokenCache = verifiedTokenCache;
+    }
+
+    /**
+     * When enabled, {@link #loadContext(HttpRequestResponseHolder)} returns a security context that decrypts and
+     * deserializes the authentication cookie on the first call to {@link SecurityContext#getAuthentication()}, so
+     * that requests which never consult the authentication pay no cryptographic cost. If the authentication is never
+     * read or replaced, the authentication cookie is left untouched on the response, and its expiry does not slide
+     * forward. A cookie that is read and rejected is expired when the security context is saved, and a cookie that
+     * cannot be parsed makes every read of the authentication throw, as {@code loadContext} does without lazy loading.
+     * <p>
+     * Note that Spring Security's {@code AnonymousAuthenticationFilter} reads the authentication on every request it
+     * handles.
+     *
+     * @param lazyLoadContext true to defer loading the authentication until it is first read, false to load it in
+     *                        {@code loadContext} (default)
+     */
+    public void setLazyLoadContext(boolean lazyLoadContext) {
+        this.lazyLoadContext = lazyLoadContext;
+    }
+
+    /**
+     * Sets a matcher for requests, such as health checks and static assets, for which the security context is neither
+     * loaded nor saved. Matching requests get an empty security context, and their response is not wrapped and never
+     * carries an authentication cookie. {@link PathPrefixRequestMatcher} matches many paths efficiently.
+     *
+     * @param ignoredRequestMatcher the requests to ignore, or null to handle every request (default)
+     */
+    public void setIgnoredRequestMatcher(RequestMatcher ignoredRequestMatcher) {
+        this.ignoredRequestMatcher = ignoredRequestMatcher;
+    }
+
+    /**
+     * When enabled, authentication cookies are written as {@code Set-Cookie} headers formatted from attributes that
+     * are computed once per configuration, rather than as {@link Cookie} objects that the servlet container formats on
+     * every response.
+     *
+     * @param writeSetCookieHeaders true to write {@code Set-Cookie} headers directly, false to use {@link Cookie} (default)
+     */
+    public void setWriteSetCookieHeaders(boolean writeSetCookieHeaders) {
+        this.writeSetCookieHeaders = writeSetCookieHeaders;
+    }
+
+    /**
+     * Sets the {@code SameSite} attribute of the authentication cookies. The servlet cookie API cannot express this
+     * attribute, so setting it also enables {@link #setWriteSetCookieHeaders(boolean)}.
+     *
+     * @param authenticationCookieSameSite {@code Strict}, {@code Lax} or {@code None}, or null to omit the attribute (default)
+     */
+    public void setAuthenticationCookieSameSite(String authenticationCookieSameSite) {
+        this.setCookieHeaderTemplate = new SetCookieHeaderTemplate(authenticationCookiePath, authenticationCookieMaxAgeSeconds, true, authenticationCookieSameSite);
+        this.authenticationCookieSameSite = authenticationCookieSameSite;
+        if (authenticationCookieSameSite != null) {
+            this.writeSetCookieHeaders = true;
+        }
+    }
+
+    /**
+     * Sets where to report the time taken to serialize and deserialize authentications, the size of authentication
+     * cookies, and the outcome of loading and saving security contexts. The {@link TokenEncryption} reports its own
+     * timings: configure {@link JwtEncryption#setMetrics(SecurityContextMetrics)} with the same instance.
+     *
+     * @param metrics the metrics to record, such as {@link HistogramSecurityContextMetrics}, or
+     *                {@link SecurityContextMetrics#NO_OP} (default)
+     */
+    public void setMetrics(SecurityContextMetrics metrics) {
+        Assert.notNull(metrics);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the number of times saving the security context was skipped because it had not changed
+     */
+    public long getSkippedSaveCount() {
+        return skippedSaveCount.sum();
+    }
+
+    /**
+     * Reads the authentication cookie, or the chunks of a token split across several cookies, from the cookie index
+     * shared with the other cookie-based components for the request. Chunk cookies numbered at or beyond the current
+     * maximum chunk count, left over from a larger token or another configuration, are noted so that they are expired.
+     */
+    private AuthenticationCookies readAuthenticationCookies(HttpServletRequest request) {
+        RequestCookies requestCookies = RequestCookies.of(request);
+        if (requestCookies.isEmpty()) {
+            return NO_AUTHENTICATION_COOKIES;
+        }
+        String[] chunkCookieNames = getChunkCookieNames();
+        int chunkCount = 0;
+        for (int i = chunkCookieNames.length - 1; i >= 0; i--) {
+            if (requestCookies.contains(chunkCookieNames[i])) {
+                chunkCount = i + 1;
+                break;
+            }
+        }
+        List<String> staleChunkCookieNames = findStaleChunkCookieNames(requestCookies, chunkCookieNames.length);
+        if (requestCookies.contains(authenticationCookieName)) {
+            return new AuthenticationCookies(requestCookies.getValue(authenticationCookieName), true, chunkCount, staleChunkCookieNames);
+        }
+        if (chunkCount == 0) {
+            return staleChunkCookieNames.isEmpty() ? NO_AUTHENTICATION_COOKIES : new AuthenticationCookies(null, false, 0, staleChunkCookieNames);
+        }
+        return new AuthenticationCookies(joinChunks(requestCookies, chunkCookieNames, chunkCount), false, chunkCount, staleChunkCookieNames);
+    }
+
+    private List<String> findStaleChunkCookieNames(RequestCookies requestCookies, int maxChunkCount) {
+        String prefix = authenticationCookieName + '_';
+        List<String> staleChunkCookieNames = Collections.emptyList();
+        for (String name : requestCookies.getNames()) {
+            if (name.length() > prefix.length() && name.startsWith(prefix) && isStaleChunkIndex(name.substring(prefix.length()), maxChunkCount)) {
+                if (staleChunkCookieNames.isEmpty()) {
+                    staleChunkCookieNames = new ArrayList<>();
+                }
+                staleChunkCookieNames.add(name);
+            }
+        }
+        return staleChunkCookieNames;
+    }
+
+    private static boolean isStaleChunkIndex(String chunkIndex, int maxChunkCount) {
+        if (chunkIndex.length() > 1 && chunkIndex.charAt(0) == '0') {
+            return false;
+        }
+        for (int i = 0; i < chunkIndex.length(); i++) {
+            if (chunkIndex.charAt(i) < '0' || chunkIndex.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return chunkIndex.length() > 9 || Integer.parseInt(chunkIndex) >= maxChunkCount;
+    }
+
+    private String joinChunks(RequestCookies requestCookies, String[] chunkCookieNames, int chunkCount) {
+        int length = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            String chunk = requestCookies.getValue(chunkCookieNames[i]);
+            if (chunk == null) {
+                logger.warn("Missing authentication cookie chunk " + i + " of " + chunkCount);
+                return null;
+            }
+            length += chunk.length();
+        }
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < chunkCount; i++) {
+            value.append(requestCookies.getValue(chunkCookieNames[i]));
+        }
+        return value.toString();
+    }
+
+    private int getMaxChunkCount() {
+        if (authenticationCookieChunkSize <= 0) {
+            return 0;
+        }
+        return (maxAuthenticationCookieBytes + authenticationCookieChunkSize - 1) / authenticationCookieChunkSize;
+    }
+
+    private String getChunkCookieName(int chunkIndex) {
+        String[] chunkCookieNames = getChunkCookieNames();
+        return chunkIndex < chunkCookieNames.length ? chunkCookieNames[chunkIndex] : authenticationCookieName + '_' + chunkIndex;
+    }
+
+    private String[] getChunkCookieNames() {
+        String[] chunkCookieNames = this.chunkCookieNames;
+        if (chunkCookieNames == null) {
+            chunkCookieNames = new String[getMaxChunkCount()];
+            for (int i = 0; i < chunkCookieNames.length; i++) {
+                chunkCookieNames[i] = authenticationCookieName + '_' + i;
+            }
+            this.chunkCookieNames = chunkCookieNames;
+        }
+        return chunkCookieNames;
+    }
+
+    private void expireAuthenticationCookies(HttpServletRequest request, HttpServletResponse response, AuthenticationCookies authenticationCookies) {
+        addExpiredAuthenticationCookie(request, response, authenticationCookieName);
+        expireChunkCookies(request, response, 0, authenticationCookies);
+    }
+
+    /**
+     * Expires the chunk cookies on the request from the given index on, including any stale chunk cookies.
+     */
+    private void expireChunkCookies(HttpServletRequest request, HttpServletResponse response, int fromChunkIndex, AuthenticationCookies authenticationCookies) {
+        for (int i = fromChunkIndex; i < authenticationCookies.getChunkCount(); i++) {
+            addExpiredAuthenticationCookie(request, response, getChunkCookieName(i));
+        }
+        for (String staleChunkCookieName : authenticationCookies.getStaleChunkCookieNames()) {
+            addExpiredAuthenticationCookie(request, response, staleChunkCookieName);
+        }
+    }
+
+    private void addAuthenticationCookie(HttpServletRequest request, HttpServletResponse response, String cookieName, String cookieValue) {
+        if (writeSetCookieHeaders) {
+            getSetCookieHeaderTemplate().addCookie(response, cookieName, cookieValue, ForwardedHeaders.isSecure(request));
+            return;
         }
-        Optional<Cookie> maybeCookie = Arrays.stream(request.getCookies()).filter(cookie -> cookie.getName().equals(authenticationCookieName)).findFirst();
-        return maybeCookie.isPresent() ? maybeCookie.get() : null;
+        Cookie authenticationCookie = new Cookie(cookieName, cookieValue);
+        authenticationCookie.setPath(authenticationCookiePath);
+        authenticationCookie.setHttpOnly(true);
+        authenticationCookie.setSecure(ForwardedHeaders.isSecure(request));
+        authenticationCookie.setMaxAge(authenticationCookieMaxAgeSeconds);
+        response.addCookie(authenticationCookie);
     }
 
-    private Cookie createExpireAuthenticationCookie(HttpServletRequest request) {
-        Cookie removeSessionCookie = new Cookie(authenticationCookieName, "");
+    private void addExpiredAuthenticationCookie(HttpServletRequest request, HttpServletResponse response, String cookieName) {
+        if (writeSetCookieHeaders) {
+            getSetCookieHeaderTemplate().addExpiredCookie(response, cookieName, ForwardedHeaders.isSecure(request));
+            return;
+        }
+        Cookie removeSessionCookie = new Cookie(cookieName, "");
         removeSessionCookie.setPath(authenticationCookiePath);
         removeSessionCookie.setMaxAge(0);
         removeSessionCookie.setHttpOnly(true);
-        removeSessionCookie.setSecure(request.isSecure());
-        return removeSessionCookie;
+        removeSessionCookie.setSecure(ForwardedHeaders.isSecure(request));
+        response.addCookie(removeSessionCookie);
+    }
+
+    private SetCookieHeaderTemplate getSetCookieHeaderTemplate() {
+        SetCookieHeaderTemplate setCookieHeaderTemplate = this.setCookieHeaderTemplate;
+        if (setCookieHeaderTemplate == null) {
+            setCookieHeaderTemplate = new SetCookieHeaderTemplate(authenticationCookiePath, authenticationCookieMaxAgeSeconds, true, authenticationCookieSameSite);
+            this.setCookieHeaderTemplate = setCookieHeaderTemplate;
+        }
+        return setCookieHeaderTemplate;
+    }
+
+    /**
+     * A security context that loads its authentication on first access. Like the {@link SecurityContext} returned by
+     * {@link SecurityContextHolder#createEmptyContext()}, it is only used by the thread handling the request.
+     */
+    private static class LazySecurityContext implements SecurityContext {
+        private transient Supplier<Authentication> authenticationLoader;
+        private transient RuntimeException loadFailure;
+        private Authentication authentication;
+
+        LazySecurityContext(Supplier<Authentication> authenticationLoader) {
+            this.authenticationLoader = authenticationLoader;
+        }
+
+        /**
+         * Like {@code loadContext} without lazy loading, throws if the authentication cookie cannot be loaded, and
+         * keeps throwing the same exception on every later call rather than returning null.
+         */
+        @Override
+        public Authentication getAuthentication() {
+            if (loadFailure != null) {
+                throw loadFailure;
+            }
+            if (authenticationLoader != null) {
+                try {
+                    authentication = authenticationLoader.get();
+                } catch (RuntimeException e) {
+                    loadFailure = e;
+                    throw e;
+                }
+                authenticationLoader = null;
+            }
+            return authentication;
+        }
+
+        @Override
+        public void setAuthentication(Authentication authentication) {
+            this.authenticationLoader = null;
+            this.loadFailure = null;
+            this.authentication = authentication;
+        }
+
+        boolean isLoaded() {
+            return authenticationLoader == null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SecurityContext)) {
+                return false;
+            }
+            Authentication thisAuthentication = getAuthentication();
+            Authentication otherAuthentication = ((SecurityContext) obj).getAuthentication();
+            return thisAuthentication == null ? otherAuthentication == null : thisAuthentication.equals(otherAuthentication);
+        }
+
+        @Override
+        public int hashCode() {
+            Authentication authentication = getAuthentication();
+            return authentication == null ? -1 : authentication.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return isLoaded() ? "LazySecurityContext: Authentication: " + authentication : "LazySecurityContext: Authentication not loaded";
+        }
+    }
+
+    private static class AuthenticationCookies {
+        private final String value;
+        private final boolean singleCookiePresent;
+        private final int chunkCount;
+        private final List<String> staleChunkCookieNames;
+
+        AuthenticationCookies(String value, boolean singleCookiePresent, int chunkCount, List<String> staleChunkCookieNames) {
+            this.value = value;
+            this.singleCookiePresent = singleCookiePresent;
+            this.chunkCount = chunkCount;
+            this.staleChunkCookieNames = staleChunkCookieNames;
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        boolean isPresent() {
+            return singleCookiePresent || chunkCount > 0 || !staleChunkCookieNames.isEmpty();
+        }
+
+        boolean isSingleCookiePresent() {
+            return singleCookiePresent;
+        }
+
+        int getChunkCount() {
+            return chunkCount;
+        }
+
+        List<String> getStaleChunkCookieNames() {
+            return staleChunkCookieNames;
+        }
     }
 
     private class SaveToCookieResponseWrapper extends SaveContextOnUpdateOrErrorResponseWrapper {
         private final HttpServletRequest request;
+        private final AuthenticationCookies requestCookies;
+        private Authentication loadedAuthentication;
+        private String loadedSerializedAuthentication;
+        private long loadedRefreshTimeMillis = Long.MAX_VALUE;
+        private String loadedTokenId;
 
-        SaveToCookieResponseWrapper(HttpServletRequest request, HttpServletResponse response) {
+        SaveToCookieResponseWrapper(HttpServletRequest request, HttpServletResponse response, AuthenticationCookies requestCookies) {
             super(response, true);
             this.request = request;
+            this.requestCookies = requestCookies;
+        }
+
+        void setLoadedAuthentication(Authentication loadedAuthentication, long loadedRefreshTimeMillis, String loadedTokenId) {
+            this.loadedAuthentication = loadedAuthentication;
+            if (saveOnlyIfChanged && loadedAuthentication != null) {
+                // Deserializing does not reproduce the token exactly, so the snapshot is the loaded authentication
+                // serialized again, before the application can change it in place
+                this.loadedSerializedAuthentication = serializeAuthentication(loadedAuthentication);
+            }
+            this.loadedRefreshTimeMillis = loadedRefreshTimeMillis;
+            this.loadedTokenId = loadedTokenId;
+            if (loadedAuthentication != null && loadedTokenId != null) {
+                request.setAttribute(AUTHENTICATION_TOKEN_ID_ATTRIBUTE_NAME, loadedTokenId);
+            }
         }
 
         @Override
         protected void saveContext(SecurityContext securityContext) {
             HttpServletResponse response = (HttpServletResponse) getResponse();
+            if (securityContext instanceof LazySecurityContext && !((LazySecurityContext) securityContext).isLoaded()) {
+                skippedSaveCount.increment();
+                metrics.recordOutcome(SecurityContextMetrics.Outcome.SKIPPED);
+                return;
+            }
             Authentication authentication = securityContext.getAuthentication();
+            String serializedAuthentication = authentication != null ? serializeAuthentication(authentication) : null;
+            if (saveOnlyIfChanged && isUnchanged(authentication, serializedAuthentication)) {
+                skippedSaveCount.increment();
+                metrics.recordOutcome(SecurityContextMetrics.Outcome.SKIPPED);
+                return;
+            }
             if (authentication == null) {
-                response.addCookie(createExpireAuthenticationCookie(request));
+                metrics.recordOutcome(SecurityContextMetrics.Outcome.CLEARED);
+                expireAuthenticationCookies(request, response, requestCookies);
+                return;
+            }
+            String tokenId = authentication == loadedAuthentication && loadedTokenId != null ? loadedTokenId : createTokenId();
+            String jwtToken = tokenEncryption.encryptAndSign(serializedAuthentication, tokenId);
+            addAuthenticationCookies(response, jwtToken);
+        }
+
+        private String createTokenId() {
+            byte[] tokenId = new byte[16];
+            TOKEN_ID_RANDOM.nextBytes(tokenId);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(tokenId);
+        }
+
+        private void addAuthenticationCookies(HttpServletResponse response, String jwtToken) {
+            if (authenticationCookieChunkSize <= 0 || jwtToken.length() <= authenticationCookieChunkSize) {
+                addAuthenticationCookie(request, response, authenticationCookieName, jwtToken);
+                expireChunkCookies(request, response, 0, requestCookies);
+                recordSaved(jwtToken);
+                return;
+            }
+            if (jwtToken.length() > maxAuthenticationCookieBytes) {
+                logger.warn("Authentication token of " + jwtToken.length() + " bytes exceeds maximum of "
+                        + maxAuthenticationCookieBytes + " bytes, expiring authentication cookies");
+                metrics.recordOutcome(SecurityContextMetrics.Outcome.TOO_LARGE);
+                expireAuthenticationCookies(request, response, requestCookies);
                 return;
             }
-            String serializedAuthentication = authenticationSerializer.serialize(authentication);
-            String jwtToken = tokenEncryption.encryptAndSign(serializedAuthentication);
-            response.addCookie(createAuthenticationCookie(jwtToken));
+            int chunkCount = 0;
+            for (int start = 0; start < jwtToken.length(); start += authenticationCookieChunkSize) {
+                int end = Math.min(start + authenticationCookieChunkSize, jwtToken.length());
+                addAuthenticationCookie(request, response, getChunkCookieName(chunkCount), jwtToken.substring(start, end));
+                chunkCount++;
+            }
+            expireChunkCookies(request, response, chunkCount, requestCookies);
+            if (requestCookies.isSingleCookiePresent()) {
+                addExpiredAuthenticationCookie(request, response, authenticationCookieName);
+            }
+            recordSaved(jwtToken);
+        }
+
+        private void recordSaved(String jwtToken) {
+            metrics.recordWrittenCookieSize(jwtToken.length());
+            metrics.recordOutcome(SecurityContextMetrics.Outcome.SAVED);
+        }
+
+        /**
+         * An authentication is unchanged if it is the one loaded from the request cookie and still serializes as it did
+         * when it was loaded, or if there is none and the request had no cookie to expire. A cookie that was
+         * rejected, or that deserialized to no authentication, does not count as loaded, so it is expired rather than
+         * presented again on every request.
+         */
+        private boolean isUnchanged(Authentication authentication, String serializedAuthentication) {
+            if (authentication == null) {
+                return !requestCookies.isPresent();
+            }
+            return authentication == loadedAuthentication && serializedAuthentication.equals(loadedSerializedAuthentication)
+                    && !isRefreshRequired();
         }
 
-        private Cookie createAuthenticationCookie(String cookieValue) {
-            Cookie authenticationCookie = new Cookie(authenticationCookieName, cookieValue);
-            authenticationCookie.setPath(authenticationCookiePath);
-            authenticationCookie.setHttpOnly(true);
-            authenticationCookie.setSecure(request.isSecure());
-            authenticationCookie.setMaxAge(authenticationCookieMaxAgeSeconds);
-            return authenticationCookie;
+        private boolean isRefreshRequired() {
+            return System.currentTimeMillis() >= loadedRefreshTimeMillis;
         }
     }
 }
@@ -0,0 +1,69 @@
+package au.gov.dto.springframework.security.web.context;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Serializer for the authorities of {@link org.springframework.security.core.userdetails.User} and
+ * {@link org.springframework.security.authentication.UsernamePasswordAuthenticationToken}, registered with their
+ * mixins. While {@link AuthorityIds} are supplied, a collection made up only of {@link SimpleGrantedAuthority} is
+ * written in a single pass in the {@link AuthorityIdsFormat}. Any other collection, or every collection when no ids are
+ * supplied, is written as usual.
+ */
+public class GrantedAuthoritiesSerializer extends JsonSerializer<Collection<? extends GrantedAuthority>> {
+    private final Supplier<? extends AuthorityIds> authorityIds;
+
+    public GrantedAuthoritiesSerializer() {
+        this(() -> null);
+    }
+
+    /**
+     * @param authorityIds supplies the ids to write with, or null to write authorities as usual; called for every
+     *                     collection, so that the ids can be changed after the serializer has been created
+     */
+    public GrantedAuthoritiesSerializer(Supplier<? extends AuthorityIds> authorityIds) {
+        Assert.notNull(authorityIds);
+        this.authorityIds = authorityIds;
+    }
+
+    @Override
+    public void serialize(Collection<? extends GrantedAuthority> value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        AuthorityIds ids = authorityIds.get();
+        if (ids != null && isSimpleGrantedAuthorities(value)) {
+            AuthorityIdsFormat.write(value, ids, jgen);
+        } else {
+            provider.findValueSerializer(value.getClass(), null).serialize(value, jgen, provider);
+        }
+    }
+
+    /**
+     * Writes the ids without a type id, as their shape already tells them apart from a typed collection.
+     */
+    @Override
+    public void serializeWithType(Collection<? extends GrantedAuthority> value, JsonGenerator jgen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+        AuthorityIds ids = authorityIds.get();
+        if (ids != null && isSimpleGrantedAuthorities(value)) {
+            AuthorityIdsFormat.write(value, ids, jgen);
+        } else {
+            provider.findValueSerializer(value.getClass(), null).serializeWithType(value, jgen, provider, typeSer);
+        }
+    }
+
+    private static boolean isSimpleGrantedAuthorities(Collection<? extends GrantedAuthority> authorities) {
+        for (GrantedAuthority authority : authorities) {
+            if (authority == null || authority.getClass() != SimpleGrantedAuthority.class || authority.getAuthority() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
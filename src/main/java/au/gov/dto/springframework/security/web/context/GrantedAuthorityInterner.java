@@ -0,0 +1,63 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves serialized authorities to shared {@link SimpleGrantedAuthority} instances, and identical lists of
+ * authorities to one shared, unmodifiable, array-backed list, so that deserializing the same few roles for every
+ * request does not allocate new authority objects and intermediate collections each time.
+ * <p>
+ * Both caches are bounded; once full, further authorities and lists are created as before but not cached.
+ */
+public final class GrantedAuthorityInterner {
+    static final int MAXIMUM_AUTHORITIES = 4096;
+    static final int MAXIMUM_AUTHORITY_LISTS = 4096;
+
+    private static final ConcurrentHashMap<String, SimpleGrantedAuthority> AUTHORITIES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<List<String>, List<GrantedAuthority>> AUTHORITY_LISTS = new ConcurrentHashMap<>();
+
+    private GrantedAuthorityInterner() {
+    }
+
+    public static SimpleGrantedAuthority intern(String role) {
+        SimpleGrantedAuthority authority = AUTHORITIES.get(role);
+        if (authority != null) {
+            return authority;
+        }
+        authority = new SimpleGrantedAuthority(role);
+        if (AUTHORITIES.size() >= MAXIMUM_AUTHORITIES) {
+            return authority;
+        }
+        SimpleGrantedAuthority existing = AUTHORITIES.putIfAbsent(role, authority);
+        return existing != null ? existing : authority;
+    }
+
+    public static List<GrantedAuthority> intern(List<String> roles) {
+        List<GrantedAuthority> authorities = AUTHORITY_LISTS.get(roles);
+        if (authorities != null) {
+            return authorities;
+        }
+        GrantedAuthority[] authorityArray = new GrantedAuthority[roles.size()];
+        for (int i = 0; i < authorityArray.length; i++) {
+            authorityArray[i] = intern(roles.get(i));
+        }
+        authorities = Collections.unmodifiableList(Arrays.asList(authorityArray));
+        if (AUTHORITY_LISTS.size() >= MAXIMUM_AUTHORITY_LISTS) {
+            return authorities;
+        }
+        List<String> key = Collections.unmodifiableList(Arrays.asList(roles.toArray(new String[roles.size()])));
+        List<GrantedAuthority> existing = AUTHORITY_LISTS.putIfAbsent(key, authorities);
+        return existing != null ? existing : authorities;
+    }
+
+    static void clear() {
+        AUTHORITIES.clear();
+        AUTHORITY_LISTS.clear();
+    }
+}
@@ -0,0 +1,196 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.springframework.util.Assert;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps counters of outcomes and rejection reasons, and histograms of latencies and cookie sizes, in {@link LongAdder}s, so that request
+ * threads recording them rarely contend and do not allocate. The histograms have a bucket for each power of two,
+ * which is precise enough to tell a fast path from a slow one while recording in constant time. Read the values to
+ * export them to a metrics or monitoring system.
+ */
+public class HistogramSecurityContextMetrics implements SecurityContextMetrics {
+    private final Histogram[] latencies = new Histogram[Phase.values().length];
+    private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+    private final LongAdder[] rejections = new LongAdder[Rejection.values().length];
+    private final Histogram readCookieSizes = new Histogram();
+    private final Histogram writtenCookieSizes = new Histogram();
+
+    public HistogramSecurityContextMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new Histogram();
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void recordLatency(Phase phase, long nanos) {
+        latencies[phase.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordReadCookieSize(int length) {
+        readCookieSizes.record(length);
+    }
+
+    @Override
+    public void recordWrittenCookieSize(int length) {
+        writtenCookieSizes.record(length);
+    }
+
+    @Override
+    public void recordOutcome(Outcome outcome) {
+        outcomes[outcome.ordinal()].increment();
+    }
+
+    @Override
+    public void recordRejection(Rejection rejection) {
+        rejections[rejection.ordinal()].increment();
+    }
+
+    /**
+     * @return the histogram of latencies of a phase, in nanoseconds
+     */
+    public Histogram getLatency(Phase phase) {
+        Assert.notNull(phase);
+        return latencies[phase.ordinal()];
+    }
+
+    public Histogram getReadCookieSizes() {
+        return readCookieSizes;
+    }
+
+    public Histogram getWrittenCookieSizes() {
+        return writtenCookieSizes;
+    }
+
+    public long getOutcomeCount(Outcome outcome) {
+        Assert.notNull(outcome);
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    /**
+     * @return the count of every outcome, including those that have not occurred
+     */
+    public Map<Outcome, Long> getOutcomeCounts() {
+        Map<Outcome, Long> outcomeCounts = new EnumMap<>(Outcome.class);
+        for (Outcome outcome : Outcome.values()) {
+            outcomeCounts.put(outcome, outcomes[outcome.ordinal()].sum());
+        }
+        return outcomeCounts;
+    }
+
+    public long getRejectionCount(Rejection rejection) {
+        Assert.notNull(rejection);
+        return rejections[rejection.ordinal()].sum();
+    }
+
+    /**
+     * @return the count of every rejection reason, including those that have not occurred
+     */
+    public Map<Rejection, Long> getRejectionCounts() {
+        Map<Rejection, Long> rejectionCounts = new EnumMap<>(Rejection.class);
+        for (Rejection rejection : Rejection.values()) {
+            rejectionCounts.put(rejection, rejections[rejection.ordinal()].sum());
+        }
+        return rejectionCounts;
+    }
+
+    /**
+     * A histogram of non-negative values, with bucket {@code i} counting the values whose highest set bit is bit
+     * {@code i - 1}, that is values from {@code 2^(i-1)} to {@code 2^i - 1}. Bucket 0 counts zeros. Values are read
+     * without stopping writers, so a snapshot taken while values are recorded may be slightly inconsistent.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets[bucketIndex(value)].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        static int bucketIndex(long value) {
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0.0 : (double) getSum() / count;
+        }
+
+        /**
+         * @return the number of values recorded in each bucket
+         */
+        public long[] getBucketCounts() {
+            long[] bucketCounts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                bucketCounts[i] = buckets[i].sum();
+            }
+            return bucketCounts;
+        }
+
+        /**
+         * @param quantile a value between 0 and 1, such as 0.99 for the 99th percentile
+         * @return an upper bound for the value at the quantile: the largest value of the bucket that holds it, capped at
+         *         the largest value recorded; or 0 if no values have been recorded
+         */
+        public long getQuantileUpperBound(double quantile) {
+            Assert.isTrue(quantile >= 0.0 && quantile <= 1.0, "quantile must be between 0 and 1");
+            long[] bucketCounts = getBucketCounts();
+            long total = 0;
+            for (long bucketCount : bucketCounts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += bucketCounts[i];
+                if (cumulative >= rank) {
+                    long bucketUpperBound = i == 0 ? 0 : i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(bucketUpperBound, getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+}
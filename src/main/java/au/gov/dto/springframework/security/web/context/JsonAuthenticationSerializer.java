@@ -1,8 +1,19 @@
 package au.gov.dto.springframework.security.web.context;
 
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.KeyDeserializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.cfg.HandlerInstantiator;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.jsontype.TypeIdResolver;
+import com.fasterxml.jackson.databind.jsontype.TypeResolverBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -10,33 +21,54 @@ import org.springframework.security.core.userdetails.User;
 import org.springframework.security.jackson2.SimpleGrantedAuthorityMixin;
 import org.springframework.security.jackson2.UnmodifiableListMixin;
 import org.springframework.security.jackson2.UnmodifiableSetMixin;
+import org.springframework.security.jackson2.UserDeserializer;
 import org.springframework.security.jackson2.UserMixin;
+import org.springframework.security.jackson2.UsernamePasswordAuthenticationTokenDeserializer;
 import org.springframework.security.jackson2.UsernamePasswordAuthenticationTokenMixin;
 import org.springframework.security.web.authentication.WebAuthenticationDetails;
 import org.springframework.security.web.jackson2.WebAuthenticationDetailsMixin;
 import org.springframework.util.Assert;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 
 public class JsonAuthenticationSerializer implements AuthenticationSerializer {
-    private ObjectMapper objectMapper = new ObjectMapper();
+    private final Log logger = LogFactory.getLog(this.getClass());
+    private ObjectMapper objectMapper;
+    private AuthorityDictionary authorityDictionary = null;
+    private PrincipalTypeResolver principalTypeResolver = PrincipalTypeResolver.allowing(Collections.<Class<?>>emptyList());
 
     public JsonAuthenticationSerializer() {
-        this.objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
-        this.objectMapper.addMixInAnnotations(SimpleGrantedAuthority.class, SimpleGrantedAuthorityMixin.class);
-        this.objectMapper.addMixInAnnotations(Collections.unmodifiableList(Collections.EMPTY_LIST).getClass(), UnmodifiableListMixin.class);
-        this.objectMapper.addMixInAnnotations(Collections.unmodifiableSet(Collections.EMPTY_SET).getClass(), UnmodifiableSetMixin.class);
-        this.objectMapper.addMixInAnnotations(User.class, UserMixin.class);
-        this.objectMapper.addMixInAnnotations(UsernamePasswordAuthenticationToken.class, UsernamePasswordAuthenticationTokenMixin.class);
-        this.objectMapper.addMixInAnnotations(WebAuthenticationDetails.class, WebAuthenticationDetailsMixin.class);
+        this(new ObjectMapper());
+    }
+
+    /**
+     * Configures the given mapper with default typing and the Spring Security mixins, so that subclasses can use an
+     * {@link ObjectMapper} backed by a different data format.
+     */
+    protected JsonAuthenticationSerializer(ObjectMapper objectMapper) {
+        Assert.notNull(objectMapper);
+        this.objectMapper = configure(objectMapper);
+    }
+
+    private ObjectMapper configure(ObjectMapper objectMapper) {
+        objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+        objectMapper.addMixInAnnotations(SimpleGrantedAuthority.class, SimpleGrantedAuthorityMixin.class);
+        objectMapper.addMixInAnnotations(Collections.unmodifiableList(Collections.EMPTY_LIST).getClass(), UnmodifiableListMixin.class);
+        objectMapper.addMixInAnnotations(Collections.unmodifiableSet(Collections.EMPTY_SET).getClass(), UnmodifiableSetMixin.class);
+        objectMapper.addMixInAnnotations(User.class, UserMixin.class);
+        objectMapper.addMixInAnnotations(UsernamePasswordAuthenticationToken.class, UsernamePasswordAuthenticationTokenMixin.class);
+        objectMapper.addMixInAnnotations(WebAuthenticationDetails.class, WebAuthenticationDetailsMixin.class);
+        objectMapper.setHandlerInstantiator(new PrincipalTypeHandlerInstantiator());
+        return objectMapper;
     }
 
     @Override
     public String serialize(Authentication authentication) {
         try {
-            return objectMapper.writeValueAsString(authentication);
-        } catch (JsonProcessingException e) {
+            return writeValue(authentication);
+        } catch (IOException | IllegalArgumentException e) {
             throw new RuntimeException("Problem serializing Authentication principal to JSON", e);
         }
     }
@@ -44,18 +76,87 @@ public class JsonAuthenticationSerializer implements AuthenticationSerializer {
     @Override
     public Authentication deserialize(String serializedAuthentication) {
         try {
-            return (Authentication) objectMapper.readValue(serializedAuthentication, Object.class);
-        } catch (IOException e) {
+            return (Authentication) readValue(serializedAuthentication);
+        } catch (AuthorityIdsMismatchException e) {
+            logger.warn("Authentication was serialized with another version of the authority dictionary: " + e.getOriginalMessage());
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
             throw new RuntimeException("Problem deserializing JSON to Authentication", e);
         }
     }
 
+    protected String writeValue(Object value) throws IOException {
+        return objectMapper.writeValueAsString(value);
+    }
+
+    protected Object readValue(String serializedValue) throws IOException {
+        return objectMapper.readValue(serializedValue, Object.class);
+    }
+
     public ObjectMapper getObjectMapper() {
         return objectMapper;
     }
 
+    /**
+     * Replaces the mapper, configuring it as the constructor configures its own: default typing, the Spring Security
+     * mixins, and a {@link HandlerInstantiator} that applies the allowed principal types and the authority dictionary.
+     * Any handler instantiator already set on the mapper is replaced.
+     */
     public void setObjectMapper(ObjectMapper objectMapper) {
         Assert.notNull(objectMapper);
-        this.objectMapper = objectMapper;
+        this.objectMapper = configure(objectMapper);
+    }
+
+    /**
+     * Sets a dictionary used to write collections of {@link SimpleGrantedAuthority} as lists of integer ids. Tokens
+     * written without a dictionary can still be read after one is set. Tokens written with a different dictionary
+     * version, or read without a dictionary, deserialize to null, so the user is logged out.
+     */
+    public void setAuthorityDictionary(AuthorityDictionary authorityDictionary) {
+        this.authorityDictionary = authorityDictionary;
+    }
+
+    /**
+     * Sets the principal types, in addition to {@link User}, that may be read from a token. Principals of any other
+     * type are rejected without loading their class.
+     */
+    public void setAllowedPrincipalTypes(Collection<? extends Class<?>> allowedPrincipalTypes) {
+        this.principalTypeResolver = PrincipalTypeResolver.allowing(allowedPrincipalTypes);
+    }
+
+    private class PrincipalTypeHandlerInstantiator extends HandlerInstantiator {
+        @Override
+        public JsonDeserializer<?> deserializerInstance(DeserializationConfig config, Annotated annotated, Class<?> deserClass) {
+            if (deserClass == UsernamePasswordAuthenticationTokenDeserializer.class) {
+                return new UsernamePasswordAuthenticationTokenDeserializer(() -> principalTypeResolver, () -> authorityDictionary);
+            }
+            if (deserClass == UserDeserializer.class) {
+                return new UserDeserializer(() -> authorityDictionary);
+            }
+            return null;
+        }
+
+        @Override
+        public KeyDeserializer keyDeserializerInstance(DeserializationConfig config, Annotated annotated, Class<?> keyDeserClass) {
+            return null;
+        }
+
+        @Override
+        public JsonSerializer<?> serializerInstance(SerializationConfig config, Annotated annotated, Class<?> serClass) {
+            if (serClass == GrantedAuthoritiesSerializer.class) {
+                return new GrantedAuthoritiesSerializer(() -> authorityDictionary);
+            }
+            return null;
+        }
+
+        @Override
+        public TypeResolverBuilder<?> typeResolverBuilderInstance(MapperConfig<?> config, Annotated annotated, Class<?> builderClass) {
+            return null;
+        }
+
+        @Override
+        public TypeIdResolver typeIdResolverInstance(MapperConfig<?> config, Annotated annotated, Class<?> resolverClass) {
+            return null;
+        }
     }
 }
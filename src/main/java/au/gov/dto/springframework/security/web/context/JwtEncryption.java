@@ -1,12 +1,17 @@
 package au.gov.dto.springframework.security.web.context;
 
+import com.nimbusds.jose.CompressionAlgorithm;
 import com.nimbusds.jose.EncryptionMethod;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEDecrypter;
+import com.nimbusds.jose.JWEEncrypter;
 import com.nimbusds.jose.JWEHeader;
 import com.nimbusds.jose.JWEObject;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jose.Payload;
 import com.nimbusds.jose.crypto.DirectDecrypter;
 import com.nimbusds.jose.crypto.DirectEncrypter;
@@ -14,10 +19,13 @@ import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jose.crypto.MACVerifier;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
+import net.minidev.json.JSONObject;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.Assert;
 
+import java.nio.charset.StandardCharsets;
+import java.security.Provider;
 import java.text.ParseException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
@@ -26,33 +34,89 @@ import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 public class JwtEncryption implements TokenEncryption {
+    private static final String NESTED_JWT_CONTENT_TYPE = "JWT";
+
     private final Log logger = LogFactory.getLog(this.getClass());
-    private final byte[] sessionJwtEncryptionKey;
+    private final JWSSigner jwsSigner;
+    private final JWSVerifier jwsVerifier;
+    private final JWEEncrypter jweEncrypter;
+    private final JWEDecrypter jweDecrypter;
 
     private List<JwtClaimsSetVerifier> jwtClaimsSetVerifiers = new ArrayList<>(Collections.singletonList(new ExpirationJwtClaimsSetVerifier()));
     private int jwtExpirationSeconds = 3600;
+    private double refreshThreshold = 0.0;
     private JWSAlgorithm jwsAlgorithm = JWSAlgorithm.HS256;
     private JWEAlgorithm jweAlgorithm = JWEAlgorithm.DIR;
     private EncryptionMethod encryptionMethod = EncryptionMethod.A256GCM;
+    private boolean nestedSigning = true;
+    private int compressionThreshold = -1;
+    private final LongAdder compressedTokenCount = new LongAdder();
+    private final LongAdder uncompressedPayloadBytes = new LongAdder();
+    private final LongAdder compressedPayloadBytes = new LongAdder();
+    private SecurityContextMetrics metrics = SecurityContextMetrics.NO_OP;
 
+    /**
+     * The signer, verifier, encrypter and decrypter are created once from the supplied key and are thread-safe, so
+     * the key material is not re-derived on every request.
+     *
+     * @param sessionJwtEncryptionKeyBase64 the 256-bit key used to sign and encrypt, Base64 encoded
+     */
     public JwtEncryption(String sessionJwtEncryptionKeyBase64) {
         Assert.notNull(sessionJwtEncryptionKeyBase64);
-        this.sessionJwtEncryptionKey = Base64.getDecoder().decode(sessionJwtEncryptionKeyBase64);
+        byte[] sessionJwtEncryptionKey = Base64.getDecoder().decode(sessionJwtEncryptionKeyBase64);
+        try {
+            this.jwsSigner = new MACSigner(sessionJwtEncryptionKey);
+            this.jwsVerifier = new MACVerifier(sessionJwtEncryptionKey);
+            this.jweEncrypter = new DirectEncrypter(sessionJwtEncryptionKey);
+            this.jweDecrypter = new DirectDecrypter(sessionJwtEncryptionKey);
+        } catch (JOSEException e) {
+            throw new IllegalArgumentException("Invalid JWT encryption key", e);
+        }
     }
 
     @Override
     public String encryptAndSign(String jwtSubject) {
+        return encryptAndSign(jwtSubject, null);
+    }
+
+    /**
+     * The identifier is stored as the {@code jti} claim.
+     */
+    @Override
+    public String encryptAndSign(String jwtSubject, String jwtId) {
         try {
             Date date = Date.from(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(jwtExpirationSeconds).toInstant());
-            JWTClaimsSet claimsSet = new JWTClaimsSet.Builder().subject(jwtSubject).expirationTime(date).build();
-            SignedJWT signedJWT = new SignedJWT(new JWSHeader(jwsAlgorithm), claimsSet);
-            signedJWT.sign(new MACSigner(sessionJwtEncryptionKey));
-            JWEHeader jweHeader = new JWEHeader.Builder(jweAlgorithm, encryptionMethod).contentType("JWT").build();
-            JWEObject jweObject = new JWEObject(jweHeader, new Payload(signedJWT));
-            jweObject.encrypt(new DirectEncrypter(sessionJwtEncryptionKey));
-            return jweObject.serialize();
+            JWTClaimsSet.Builder claimsSetBuilder = new JWTClaimsSet.Builder().subject(jwtSubject).expirationTime(date);
+            if (jwtId != null) {
+                claimsSetBuilder.jwtID(jwtId);
+            }
+            JWTClaimsSet claimsSet = claimsSetBuilder.build();
+            boolean compress = compressionThreshold >= 0 && jwtSubject.length() >= compressionThreshold;
+            JWEHeader.Builder jweHeaderBuilder = createJweHeaderBuilder(compress);
+            byte[] payload;
+            if (nestedSigning) {
+                long signStartNanos = System.nanoTime();
+                SignedJWT signedJWT = new SignedJWT(new JWSHeader(jwsAlgorithm), claimsSet);
+                signedJWT.sign(jwsSigner);
+                jweHeaderBuilder.contentType(NESTED_JWT_CONTENT_TYPE);
+                payload = signedJWT.serialize().getBytes(StandardCharsets.UTF_8);
+                metrics.recordLatency(SecurityContextMetrics.Phase.SIGN, System.nanoTime() - signStartNanos);
+            } else {
+                payload = claimsSet.toJSONObject().toJSONString().getBytes(StandardCharsets.UTF_8);
+            }
+            long encryptStartNanos = System.nanoTime();
+            // The payload is serialized here once, so that its length is known without serializing it again
+            JWEObject jweObject = new JWEObject(jweHeaderBuilder.build(), new Payload(payload));
+            jweObject.encrypt(jweEncrypter);
+            if (compress) {
+                recordCompression(payload.length, jweObject);
+            }
+            String serializedJwt = jweObject.serialize();
+            metrics.recordLatency(SecurityContextMetrics.Phase.ENCRYPT, System.nanoTime() - encryptStartNanos);
+            return serializedJwt;
         } catch (JOSEException e) {
             throw new RuntimeException("Could not create JWT", e);
         }
@@ -60,24 +124,64 @@ public class JwtEncryption implements TokenEncryption {
 
     @Override
     public String decryptAndVerify(String encryptedAndSignedJwt) {
+        VerifiedToken verifiedToken = decryptAndVerifyToken(encryptedAndSignedJwt);
+        return verifiedToken == null ? null : verifiedToken.getToken();
+    }
+
+    @Override
+    public VerifiedToken decryptAndVerifyToken(String encryptedAndSignedJwt) {
+        long startNanos = System.nanoTime();
+        JWEObject jweObject;
         try {
-            JWEObject jweObject = JWEObject.parse(encryptedAndSignedJwt);
-            jweObject.decrypt(new DirectDecrypter(sessionJwtEncryptionKey));
+            jweObject = JWEObject.parse(encryptedAndSignedJwt);
+        } catch (ParseException e) {
+            metrics.recordOutcome(SecurityContextMetrics.Outcome.PARSE_ERROR);
+            throw new RuntimeException("Could not parse JWT", e);
+        }
+        try {
+            jweObject.decrypt(jweDecrypter);
+        } catch (JOSEException e) {
+            metrics.recordOutcome(SecurityContextMetrics.Outcome.DECRYPT_FAILED);
+            throw new RuntimeException("Could not parse JWT", e);
+        }
+        long decryptedNanos = System.nanoTime();
+        metrics.recordLatency(SecurityContextMetrics.Phase.DECRYPT, decryptedNanos - startNanos);
+        try {
+            VerifiedToken verifiedToken = verifyToken(jweObject);
+            metrics.recordLatency(SecurityContextMetrics.Phase.VERIFY, System.nanoTime() - decryptedNanos);
+            return verifiedToken;
+        } catch (ParseException | JOSEException e) {
+            metrics.recordOutcome(SecurityContextMetrics.Outcome.PARSE_ERROR);
+            throw new RuntimeException("Could not parse JWT", e);
+        }
+    }
+
+    private VerifiedToken verifyToken(JWEObject jweObject) throws ParseException, JOSEException {
+        JWTClaimsSet claimsSet;
+        if (NESTED_JWT_CONTENT_TYPE.equals(jweObject.getHeader().getContentType())) {
             SignedJWT signedJWT = jweObject.getPayload().toSignedJWT();
-            if (!signedJWT.verify(new MACVerifier(sessionJwtEncryptionKey))) {
+            if (!signedJWT.verify(jwsVerifier)) {
                 logger.warn("JWT signature verification failed.");
+                metrics.recordRejection(SecurityContextMetrics.Rejection.BAD_SIGNATURE);
                 return null;
             }
-            for (JwtClaimsSetVerifier verifier : jwtClaimsSetVerifiers) {
-                if (!verifier.verify(signedJWT.getJWTClaimsSet())) {
-                    logger.warn("JWT claims verification failed.");
-                    return null;
-                }
+            claimsSet = signedJWT.getJWTClaimsSet();
+        } else {
+            JSONObject claimsJson = jweObject.getPayload().toJSONObject();
+            if (claimsJson == null) {
+                throw new ParseException("JWE payload is not a JSON object", 0);
+            }
+            claimsSet = JWTClaimsSet.parse(claimsJson);
+        }
+        for (JwtClaimsSetVerifier verifier : jwtClaimsSetVerifiers) {
+            if (!verifier.verify(claimsSet)) {
+                logger.warn("JWT claims verification failed.");
+                metrics.recordRejection(verifier instanceof ExpirationJwtClaimsSetVerifier
+                        ? SecurityContextMetrics.Rejection.EXPIRED : SecurityContextMetrics.Rejection.CLAIMS_REJECTED);
+                return null;
             }
-            return signedJWT.getJWTClaimsSet().getSubject();
-        } catch (ParseException | JOSEException e) {
-            throw new RuntimeException("Could not parse JWT", e);
         }
+        return createVerifiedToken(claimsSet);
     }
 
     public void setJwtClaimsSetVerifiers(List<JwtClaimsSetVerifier> jwtClaimsSetVerifiers) {
@@ -94,6 +198,90 @@ public class JwtEncryption implements TokenEncryption {
         this.jwtExpirationSeconds = jwtExpirationSeconds;
     }
 
+    /**
+     * Sets the fraction of {@link #setJwtExpirationSeconds(int) jwtExpirationSeconds} below which the remaining
+     * lifetime of a token must fall before it is re-issued. For example, 0.5 re-issues a token once half of its
+     * lifetime has elapsed. The default of 0 never asks for an unchanged token to be re-issued.
+     * <p>
+     * Only has an effect when {@link CookieSecurityContextRepository#setSaveOnlyIfChanged(boolean)} is enabled.
+     *
+     * @param refreshThreshold a value between 0 and 1
+     */
+    public void setRefreshThreshold(double refreshThreshold) {
+        Assert.isTrue(refreshThreshold >= 0.0 && refreshThreshold <= 1.0, "refreshThreshold must be between 0 and 1");
+        this.refreshThreshold = refreshThreshold;
+    }
+
+    /**
+     * Pins the JCA provider used for the {@code Mac} and {@code Cipher} instances created while signing, verifying,
+     * encrypting and decrypting, so that each operation does not have to search the installed providers.
+     *
+     * @param provider the JCA provider to use, or null to use the installed providers (default)
+     */
+    public void setJcaProvider(Provider provider) {
+        jwsSigner.getJCAContext().setProvider(provider);
+        jwsVerifier.getJCAContext().setProvider(provider);
+        jweEncrypter.getJCAContext().setProvider(provider);
+        jweDecrypter.getJCAContext().setProvider(provider);
+    }
+
+    /**
+     * When enabled (default), the claims are signed with {@link #setJwsAlgorithm(JWSAlgorithm) jwsAlgorithm} and the
+     * resulting JWS is encrypted as the payload of a JWE. When disabled, the claims are encrypted directly as the JWE
+     * payload and rely on the authenticated encryption of the JWE for integrity, which avoids a second MAC and a
+     * second layer of encoding and produces a smaller token.
+     * <p>
+     * Tokens in either format are always accepted by {@link #decryptAndVerify(String)}, so this can be switched
+     * without invalidating tokens that have already been issued.
+     *
+     * @param nestedSigning true to sign and then encrypt, false to only encrypt
+     */
+    public void setNestedSigning(boolean nestedSigning) {
+        this.nestedSigning = nestedSigning;
+    }
+
+    /**
+     * Sets the length of the token, in characters, from which the JWE payload is compressed with DEFLATE before it is
+     * encrypted. Tokens for users with many granted authorities compress well; small tokens are left uncompressed as
+     * compression would not make them noticeably smaller. Compressed tokens are decompressed transparently.
+     *
+     * @param compressionThreshold the minimum token length to compress, or a negative value to never compress (default)
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return the number of tokens that have been compressed
+     */
+    public long getCompressedTokenCount() {
+        return compressedTokenCount.sum();
+    }
+
+    /**
+     * The compressed size is the length of the ciphertext, which is the length of the compressed payload for GCM
+     * encryption methods, and includes up to one block of padding for CBC encryption methods.
+     *
+     * @return the total size of compressed payloads divided by their total size before compression, or 1 if no tokens
+     *         have been compressed
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressedPayloadBytes.sum();
+        return uncompressed == 0 ? 1.0 : (double) compressedPayloadBytes.sum() / uncompressed;
+    }
+
+    /**
+     * Sets where to report the time taken to decrypt, verify, sign and encrypt tokens, and why tokens were rejected. Use
+     * the same instance as {@link CookieSecurityContextRepository#setMetrics(SecurityContextMetrics)} to see the whole
+     * pipeline in one place.
+     *
+     * @param metrics the metrics to record, or {@link SecurityContextMetrics#NO_OP} (default)
+     */
+    public void setMetrics(SecurityContextMetrics metrics) {
+        Assert.notNull(metrics);
+        this.metrics = metrics;
+    }
+
     public void setJwsAlgorithm(JWSAlgorithm jwsAlgorithm) {
         Assert.notNull(jwsAlgorithm);
         this.jwsAlgorithm = jwsAlgorithm;
@@ -108,4 +296,30 @@ public class JwtEncryption implements TokenEncryption {
         Assert.notNull(encryptionMethod);
         this.encryptionMethod = encryptionMethod;
     }
+
+    private JWEHeader.Builder createJweHeaderBuilder(boolean compress) {
+        JWEHeader.Builder builder = new JWEHeader.Builder(jweAlgorithm, encryptionMethod);
+        if (compress) {
+            builder.compressionAlgorithm(CompressionAlgorithm.DEF);
+        }
+        return builder;
+    }
+
+    private void recordCompression(int payloadLength, JWEObject jweObject) {
+        // Every 4 characters of the unpadded base64url ciphertext encode exactly 3 bytes
+        int cipherTextLength = jweObject.getCipherText().toString().length() * 3 / 4;
+        compressedTokenCount.increment();
+        uncompressedPayloadBytes.add(payloadLength);
+        compressedPayloadBytes.add(cipherTextLength);
+    }
+
+    private VerifiedToken createVerifiedToken(JWTClaimsSet claimsSet) {
+        Date expirationTime = claimsSet.getExpirationTime();
+        if (expirationTime == null) {
+            return new VerifiedToken(claimsSet.getSubject(), Long.MAX_VALUE, Long.MAX_VALUE, claimsSet.getJWTID());
+        }
+        long expirationTimeMillis = expirationTime.getTime();
+        long refreshTimeMillis = expirationTimeMillis - (long) (refreshThreshold * jwtExpirationSeconds * 1000L);
+        return new VerifiedToken(claimsSet.getSubject(), expirationTimeMillis, refreshTimeMillis, claimsSet.getJWTID());
+    }
 }
@@ -0,0 +1,65 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.jackson2.UsernamePasswordAuthenticationTokenDeserializer;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the type id of a serialized principal to its class from a concurrent map, so that
+ * {@link UsernamePasswordAuthenticationTokenDeserializer} does not call {@link Class#forName(String)}, and take the
+ * class loader lock, for every token.
+ * <p>
+ * An allowlisting resolver only resolves the types it was created with and rejects any other type id without a class
+ * loader lookup, which also prevents a token from instantiating arbitrary classes. A permissive resolver loads unknown
+ * types on first use and caches them.
+ */
+public class PrincipalTypeResolver {
+    private final ConcurrentHashMap<String, Class<?>> types = new ConcurrentHashMap<>();
+    private final boolean permissive;
+
+    private PrincipalTypeResolver(Collection<? extends Class<?>> allowedTypes, boolean permissive) {
+        for (Class<?> allowedType : allowedTypes) {
+            Assert.notNull(allowedType);
+            types.put(allowedType.getName(), allowedType);
+        }
+        this.permissive = permissive;
+    }
+
+    /**
+     * @return a resolver for {@link User} and the given principal types only
+     */
+    public static PrincipalTypeResolver allowing(Collection<? extends Class<?>> allowedTypes) {
+        Assert.notNull(allowedTypes);
+        PrincipalTypeResolver resolver = new PrincipalTypeResolver(allowedTypes, false);
+        resolver.types.put(User.class.getName(), User.class);
+        return resolver;
+    }
+
+    /**
+     * @return a resolver that loads any principal type, as the deserializer did before type resolution was cached
+     */
+    public static PrincipalTypeResolver permissive() {
+        return new PrincipalTypeResolver(Collections.<Class<?>>emptyList(), true);
+    }
+
+    /**
+     * @return the class for the type id, or null if the type is not allowed
+     */
+    public Class<?> resolve(String typeId) {
+        Class<?> type = types.get(typeId);
+        if (type != null || !permissive) {
+            return type;
+        }
+        try {
+            type = Class.forName(typeId);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Could not load principal class [" + typeId + "]", e);
+        }
+        Class<?> existing = types.putIfAbsent(typeId, type);
+        return existing != null ? existing : type;
+    }
+}
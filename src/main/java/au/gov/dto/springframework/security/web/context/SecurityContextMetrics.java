@@ -0,0 +1,99 @@
+package au.gov.dto.springframework.security.web.context;
+
+/**
+ * Receives timings, cookie sizes and outcomes from {@link CookieSecurityContextRepository} and {@link JwtEncryption}
+ * as they load and save security contexts. Methods are called on the request thread, so implementations must be
+ * thread-safe and should neither block nor allocate. Every method does nothing by default.
+ *
+ * @see HistogramSecurityContextMetrics
+ */
+public interface SecurityContextMetrics {
+    /**
+     * Records nothing. The default for every component that reports metrics.
+     */
+    SecurityContextMetrics NO_OP = new SecurityContextMetrics() {
+    };
+
+    enum Phase {
+        /** Parsing the encrypted token and decrypting it, in {@link JwtEncryption} */
+        DECRYPT,
+        /** Verifying the signature and claims of a decrypted token, in {@link JwtEncryption} */
+        VERIFY,
+        /** Deserializing the authentication from a verified token, in {@link CookieSecurityContextRepository} */
+        DESERIALIZE,
+        /** Serializing the authentication to save, in {@link CookieSecurityContextRepository} */
+        SERIALIZE,
+        /** Signing the claims of a new token with nested signing, in {@link JwtEncryption} */
+        SIGN,
+        /** Encrypting a new token, after any signing, in {@link JwtEncryption} */
+        ENCRYPT
+    }
+
+    /**
+     * Exactly one of {@link #MISSING}, {@link #LOADED}, {@link #CACHED}, {@link #REJECTED}, {@link #DISCARDED},
+     * {@link #DECRYPT_FAILED} and {@link #PARSE_ERROR} is recorded for each authentication cookie that is loaded, and
+     * one of {@link #SAVED}, {@link #SKIPPED}, {@link #CLEARED} and {@link #TOO_LARGE} for each that is saved.
+     */
+    enum Outcome {
+        /** The request had no authentication cookie */
+        MISSING,
+        /** The authentication was loaded from the authentication cookie */
+        LOADED,
+        /** The authentication was loaded from a token found in the {@link VerifiedTokenCache} */
+        CACHED,
+        /** The {@link TokenEncryption} did not accept the token; the reason is recorded as a {@link Rejection} */
+        REJECTED,
+        /** The token was accepted, but the {@link AuthenticationSerializer} read no authentication from it */
+        DISCARDED,
+        /** The token could not be decrypted, because it was encrypted with another key or was tampered with */
+        DECRYPT_FAILED,
+        /** A token or the authentication in it could not be parsed */
+        PARSE_ERROR,
+        /** A new authentication cookie was written */
+        SAVED,
+        /** Saving was skipped because the security context was not loaded or had not changed */
+        SKIPPED,
+        /** The authentication cookie was expired because the security context had no authentication */
+        CLEARED,
+        /** The token was longer than the maximum authentication cookie size and was not saved */
+        TOO_LARGE
+    }
+
+    /**
+     * Why {@link JwtEncryption} did not accept a token that it decrypted. Each {@link Outcome#REJECTED} token from a
+     * {@link JwtEncryption} has one reason, recorded separately from the outcomes so that no token is counted twice.
+     */
+    enum Rejection {
+        /** The signature of a nested signed token did not verify */
+        BAD_SIGNATURE,
+        /** The token failed the {@link ExpirationJwtClaimsSetVerifier} */
+        EXPIRED,
+        /** The token failed any other {@link JwtClaimsSetVerifier} */
+        CLAIMS_REJECTED
+    }
+
+    /**
+     * @param phase the phase of loading or saving that was timed
+     * @param nanos the time the phase took, from {@link System#nanoTime()}
+     */
+    default void recordLatency(Phase phase, long nanos) {
+    }
+
+    /**
+     * @param length the total length of the authentication cookie values read from a request
+     */
+    default void recordReadCookieSize(int length) {
+    }
+
+    /**
+     * @param length the total length of the authentication cookie values written to a response
+     */
+    default void recordWrittenCookieSize(int length) {
+    }
+
+    default void recordOutcome(Outcome outcome) {
+    }
+
+    default void recordRejection(Rejection rejection) {
+    }
+}
@@ -0,0 +1,40 @@
+package au.gov.dto.springframework.security.web.context;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Serializes the same types as {@link JsonAuthenticationSerializer} using the binary
+ * <a href="https://github.com/FasterXML/smile-format-specification">Smile</a> format, which back-references repeated
+ * property names and short string values such as the {@code @class} type ids. The result is base64url encoded so that
+ * it can be used as the subject of the authentication token.
+ * <p>
+ * Requires {@code com.fasterxml.jackson.dataformat:jackson-dataformat-smile} on the classpath. Tokens written by this
+ * serializer cannot be read by {@link JsonAuthenticationSerializer} and vice versa.
+ */
+public class SmileAuthenticationSerializer extends JsonAuthenticationSerializer {
+    public SmileAuthenticationSerializer() {
+        super(new ObjectMapper(createSmileFactory()));
+    }
+
+    private static SmileFactory createSmileFactory() {
+        SmileFactory smileFactory = new SmileFactory();
+        smileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, true);
+        return smileFactory;
+    }
+
+    @Override
+    protected String writeValue(Object value) throws IOException {
+        byte[] smile = getObjectMapper().writeValueAsBytes(value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(smile);
+    }
+
+    @Override
+    protected Object readValue(String serializedValue) throws IOException {
+        return getObjectMapper().readValue(Base64.getUrlDecoder().decode(serializedValue), Object.class);
+    }
+}
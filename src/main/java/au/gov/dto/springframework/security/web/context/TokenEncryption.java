@@ -3,5 +3,29 @@ package au.gov.dto.springframework.security.web.context;
 public interface TokenEncryption {
     String encryptAndSign(String token);
 
+    /**
+     * Encrypts and signs a token together with an identifier that {@link #decryptAndVerifyToken(String)} returns.
+     * {@link CookieSecurityContextRepository} keeps the identifier for as long as the same authentication is
+     * re-issued, so it identifies one login. Implementations that cannot store an identifier drop it.
+     *
+     * @param token the token to encrypt and sign
+     * @param tokenId the identifier of the token, or null for none
+     */
+    default String encryptAndSign(String token, String tokenId) {
+        return encryptAndSign(token);
+    }
+
     String decryptAndVerify(String encryptedToken);
+
+    /**
+     * Decrypts and verifies a token, also returning when it expires and when it should be re-issued. Implementations
+     * that do not know the token lifetime never ask for the token to be re-issued.
+     *
+     * @param encryptedToken the encrypted and signed token
+     * @return the verified token, or null if the token could not be verified
+     */
+    default VerifiedToken decryptAndVerifyToken(String encryptedToken) {
+        String token = decryptAndVerify(encryptedToken);
+        return token == null ? null : new VerifiedToken(token, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
 }
@@ -0,0 +1,47 @@
+package au.gov.dto.springframework.security.web.context;
+
+/**
+ * A token that has been decrypted and verified by a {@link TokenEncryption}, together with the times at which it
+ * expires and at which it should be re-issued, and the identifier it was issued with, if any.
+ */
+public class VerifiedToken {
+    private final String token;
+    private final long expirationTimeMillis;
+    private final long refreshTimeMillis;
+    private final String tokenId;
+
+    public VerifiedToken(String token, long expirationTimeMillis, long refreshTimeMillis) {
+        this(token, expirationTimeMillis, refreshTimeMillis, null);
+    }
+
+    public VerifiedToken(String token, long expirationTimeMillis, long refreshTimeMillis, String tokenId) {
+        this.token = token;
+        this.expirationTimeMillis = expirationTimeMillis;
+        this.refreshTimeMillis = refreshTimeMillis;
+        this.tokenId = tokenId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public long getExpirationTimeMillis() {
+        return expirationTimeMillis;
+    }
+
+    public long getRefreshTimeMillis() {
+        return refreshTimeMillis;
+    }
+
+    /**
+     * @return the identifier passed to {@link TokenEncryption#encryptAndSign(String, String)}, or null if the token
+     *         has none
+     */
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public boolean isRefreshRequired() {
+        return System.currentTimeMillis() >= refreshTimeMillis;
+    }
+}
@@ -0,0 +1,198 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.springframework.util.Assert;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of encrypted tokens that have already been decrypted and verified by
+ * {@link CookieSecurityContextRepository}. Entries are keyed by a SHA-256 digest of the encrypted token and are
+ * evicted no later than the expiry time of the token.
+ * <p>
+ * A cache hit returns the verified token rather than the {@link org.springframework.security.core.Authentication}
+ * deserialized from it, so that each request deserializes its own instance and requests presenting the same cookie
+ * never share a mutable authentication. The claims of a cached token are not verified again: only its expiry time is
+ * checked.
+ */
+public class VerifiedTokenCache {
+    private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    });
+
+    private final int maximumSize;
+    private final ConcurrentHashMap<Key, Entry> entries;
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public VerifiedTokenCache(int maximumSize) {
+        Assert.isTrue(maximumSize > 0, "maximumSize must be greater than 0");
+        this.maximumSize = maximumSize;
+        this.entries = new ConcurrentHashMap<>(Math.min(maximumSize, 1024));
+    }
+
+    /**
+     * Digests an encrypted token once, so that looking it up and then caching it on a miss do not digest it twice.
+     *
+     * @param encryptedToken the encrypted token presented by the client
+     */
+    public static Key createKey(String encryptedToken) {
+        Assert.notNull(encryptedToken);
+        return new Key(encryptedToken);
+    }
+
+    /**
+     * @param key the key of the encrypted token presented by the client
+     * @return the cached entry for the token, or null if the token is not cached or has expired
+     */
+    public Entry get(Key key) {
+        Assert.notNull(key);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            if (entries.remove(key, entry)) {
+                evictionCount.increment();
+            }
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return entry;
+    }
+
+    /**
+     * @param key the key of the encrypted token presented by the client
+     * @param verifiedToken the result of decrypting and verifying the token
+     */
+    public void put(Key key, VerifiedToken verifiedToken) {
+        Assert.notNull(key);
+        Assert.notNull(verifiedToken);
+        if (entries.size() >= maximumSize) {
+            evict();
+        }
+        entries.put(key, new Entry(verifiedToken));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Removes expired entries. If none have expired, roughly a tenth of the cache is discarded so that the following
+     * inserts do not each have to scan the whole cache. Only one thread evicts at a time; concurrent inserts may
+     * briefly take the cache slightly over its maximum size.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            int removed = 0;
+            for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().isExpired(now)) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+            int toRemove = Math.max(1, maximumSize / 10) - removed;
+            for (Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator(); toRemove > 0 && iterator.hasNext(); toRemove--) {
+                iterator.next();
+                iterator.remove();
+                removed++;
+            }
+            evictionCount.add(removed);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    public static final class Entry {
+        private final String token;
+        private final long expirationTimeMillis;
+        private final long refreshTimeMillis;
+        private final String tokenId;
+
+        Entry(VerifiedToken verifiedToken) {
+            this.token = verifiedToken.getToken();
+            this.expirationTimeMillis = verifiedToken.getExpirationTimeMillis();
+            this.refreshTimeMillis = verifiedToken.getRefreshTimeMillis();
+            this.tokenId = verifiedToken.getTokenId();
+        }
+
+        /**
+         * @return the decrypted and verified token, to be deserialized by the request that found it
+         */
+        public String getToken() {
+            return token;
+        }
+
+        public long getExpirationTimeMillis() {
+            return expirationTimeMillis;
+        }
+
+        public long getRefreshTimeMillis() {
+            return refreshTimeMillis;
+        }
+
+        public String getTokenId() {
+            return tokenId;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expirationTimeMillis;
+        }
+    }
+
+    public static final class Key {
+        private final byte[] digest;
+        private final int hashCode;
+
+        Key(String encryptedToken) {
+            this.digest = MESSAGE_DIGEST.get().digest(encryptedToken.getBytes(StandardCharsets.US_ASCII));
+            this.hashCode = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(digest, ((Key) other).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
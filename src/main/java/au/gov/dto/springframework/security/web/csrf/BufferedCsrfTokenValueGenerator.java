@@ -0,0 +1,125 @@
+package au.gov.dto.springframework.security.web.csrf;
+
+import org.springframework.util.Assert;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Generates CSRF token values from a {@link SecureRandom} per thread, each drawing random bytes in batches, so that
+ * request threads do not contend on one shared {@code SecureRandom}. Values are encoded as unpadded base64url.
+ * <p>
+ * Each thread's generator is seeded from a shared {@code SecureRandom} when the thread first generates a token. The
+ * default algorithm, {@code SHA1PRNG}, keeps its state in the instance, unlike {@code NativePRNG}, whose instances
+ * all read through one lock.
+ */
+public class BufferedCsrfTokenValueGenerator implements CsrfTokenValueGenerator {
+    private static final char[] BASE64URL_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int SEED_BYTES = 32;
+
+    private final SecureRandom seedSource = new SecureRandom();
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(this::createBuffer);
+
+    private String algorithm = "SHA1PRNG";
+    private int tokenValueBytes = 18;
+    private int batchSize = 64;
+
+    @Override
+    public String generateTokenValue() {
+        return buffers.get().nextTokenValue();
+    }
+
+    static String encodeBase64Url(byte[] bytes, int offset, int length) {
+        char[] chars = new char[(length * 4 + 2) / 3];
+        int charIndex = 0;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 3 <= end; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            chars[charIndex++] = BASE64URL_ALPHABET[bits >>> 18];
+            chars[charIndex++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3f];
+            chars[charIndex++] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3f];
+            chars[charIndex++] = BASE64URL_ALPHABET[bits & 0x3f];
+        }
+        if (end - i == 1) {
+            int bits = (bytes[i] & 0xff) << 16;
+            chars[charIndex++] = BASE64URL_ALPHABET[bits >>> 18];
+            chars[charIndex] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3f];
+        } else if (end - i == 2) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8;
+            chars[charIndex++] = BASE64URL_ALPHABET[bits >>> 18];
+            chars[charIndex++] = BASE64URL_ALPHABET[(bits >>> 12) & 0x3f];
+            chars[charIndex] = BASE64URL_ALPHABET[(bits >>> 6) & 0x3f];
+        }
+        return new String(chars);
+    }
+
+    private Buffer createBuffer() {
+        try {
+            SecureRandom secureRandom = SecureRandom.getInstance(algorithm);
+            byte[] seed = new byte[SEED_BYTES];
+            seedSource.nextBytes(seed);
+            secureRandom.setSeed(seed);
+            Arrays.fill(seed, (byte) 0);
+            return new Buffer(secureRandom, tokenValueBytes, batchSize);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SecureRandom algorithm " + algorithm + " is not available", e);
+        }
+    }
+
+    /**
+     * Sets the {@link SecureRandom} algorithm used by each thread. Applies to threads that have not yet generated a
+     * token, so it should be set before the generator is used.
+     */
+    public void setAlgorithm(String algorithm) {
+        Assert.notNull(algorithm);
+        try {
+            SecureRandom.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("SecureRandom algorithm " + algorithm + " is not available", e);
+        }
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @param tokenValueBytes the number of random bytes in each token value, 18 (144 bits) by default
+     */
+    public void setTokenValueBytes(int tokenValueBytes) {
+        Assert.isTrue(tokenValueBytes >= 16, "tokenValueBytes must be at least 16");
+        this.tokenValueBytes = tokenValueBytes;
+    }
+
+    /**
+     * @param batchSize the number of token values each thread draws random bytes for at once
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be greater than 0");
+        this.batchSize = batchSize;
+    }
+
+    private static class Buffer {
+        private final SecureRandom secureRandom;
+        private final int tokenValueBytes;
+        private final byte[] bytes;
+        private int position;
+
+        Buffer(SecureRandom secureRandom, int tokenValueBytes, int batchSize) {
+            this.secureRandom = secureRandom;
+            this.tokenValueBytes = tokenValueBytes;
+            this.bytes = new byte[tokenValueBytes * batchSize];
+            this.position = bytes.length;
+        }
+
+        String nextTokenValue() {
+            if (position == bytes.length) {
+                secureRandom.nextBytes(bytes);
+                position = 0;
+            }
+            String tokenValue = encodeBase64Url(bytes, position, tokenValueBytes);
+            Arrays.fill(bytes, position, position + tokenValueBytes, (byte) 0);  // Do not keep issued values around
+            position += tokenValueBytes;
+            return tokenValue;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package au.gov.dto.springframework.security.web.csrf;
 
+import au.gov.dto.servlet.http.ForwardedHeaders;
+import au.gov.dto.servlet.http.RequestCookies;
+import au.gov.dto.servlet.http.SetCookieHeaderTemplate;
 import org.springframework.security.web.csrf.CsrfToken;
 import org.springframework.security.web.csrf.CsrfTokenRepository;
 import org.springframework.security.web.csrf.DefaultCsrfToken;
@@ -24,44 +27,71 @@ public class CookieCsrfTokenRepository implements CsrfTokenRepository {
     public static final String DEFAULT_CSRF_COOKIE_NAME = "csrf";
 
     private SecureRandom secureRandom = new SecureRandom();
+    private CsrfTokenValueGenerator tokenValueGenerator = null;
+    private boolean deferTokenGeneration = false;
     private String csrfHeaderName = "X-CSRF-TOKEN";
     private String csrfParameterName = "_csrf";
     private String csrfCookieName = DEFAULT_CSRF_COOKIE_NAME;
     private String csrfCookiePath = null;
     private int csrfCookieMaxAgeSeconds = -1;  // default to session cookie (non-persistent)
+    private boolean writeSetCookieHeaders = false;
+    private String csrfCookieSameSite = null;
+    private volatile SetCookieHeaderTemplate setCookieHeaderTemplate = null;
 
     @Override
     public CsrfToken generateToken(HttpServletRequest request) {
-        String tokenValue = new BigInteger(130, secureRandom).toString(32); // http://stackoverflow.com/a/41156
-        return new DefaultCsrfToken(csrfHeaderName, csrfParameterName, tokenValue);
+        if (deferTokenGeneration) {
+            return new DeferredCsrfToken(this);
+        }
+        return new DefaultCsrfToken(csrfHeaderName, csrfParameterName, generateTokenValue());
     }
 
     @Override
     public void saveToken(CsrfToken token, HttpServletRequest request, HttpServletResponse response) {
+        if (token instanceof DeferredCsrfToken) {
+            ((DeferredCsrfToken) token).saveOnAccess(request, response);
+            return;
+        }
+        addCsrfCookie(request, response, token != null ? token.getToken() : null);
+    }
+
+    private String generateTokenValue() {
+        if (tokenValueGenerator != null) {
+            return tokenValueGenerator.generateTokenValue();
+        }
+        return new BigInteger(130, secureRandom).toString(32); // http://stackoverflow.com/a/41156
+    }
+
+    private void addCsrfCookie(HttpServletRequest request, HttpServletResponse response, String tokenValue) {
+        if (writeSetCookieHeaders) {
+            if (tokenValue == null) {
+                getSetCookieHeaderTemplate().addExpiredCookie(response, csrfCookieName, ForwardedHeaders.isSecure(request));
+            } else {
+                getSetCookieHeaderTemplate().addCookie(response, csrfCookieName, tokenValue, ForwardedHeaders.isSecure(request));
+            }
+            return;
+        }
         Cookie csrfCookie;
-        if (token == null) {
+        if (tokenValue == null) {
             csrfCookie = new Cookie(csrfCookieName, "");
             csrfCookie.setMaxAge(0);
         } else {
-            csrfCookie = new Cookie(csrfCookieName, token.getToken());
+            csrfCookie = new Cookie(csrfCookieName, tokenValue);
             csrfCookie.setMaxAge(csrfCookieMaxAgeSeconds);
         }
         csrfCookie.setHttpOnly(true);
-        csrfCookie.setSecure(request.isSecure());
+        csrfCookie.setSecure(ForwardedHeaders.isSecure(request));
         csrfCookie.setPath(csrfCookiePath);
         response.addCookie(csrfCookie);
     }
 
     @Override
     public CsrfToken loadToken(HttpServletRequest request) {
-        if (request.getCookies() != null) {
-            for (Cookie cookie : request.getCookies()) {
-                if (cookie != null && csrfCookieName.equals(cookie.getName())) {
-                    return new DefaultCsrfToken(csrfHeaderName, csrfParameterName, cookie.getValue());
-                }
-            }
+        RequestCookies requestCookies = RequestCookies.of(request);
+        if (!requestCookies.contains(csrfCookieName)) {
+            return null;
         }
-        return null;
+        return new DefaultCsrfToken(csrfHeaderName, csrfParameterName, requestCookies.getValue(csrfCookieName));
     }
 
     public void setSecureRandom(SecureRandom secureRandom) {
@@ -69,6 +99,33 @@ public class CookieCsrfTokenRepository implements CsrfTokenRepository {
         this.secureRandom = secureRandom;
     }
 
+    /**
+     * Sets the generator of token values. By default, token values are drawn from a single {@link SecureRandom}
+     * shared by all request threads; {@link BufferedCsrfTokenValueGenerator} avoids contention on it under load.
+     *
+     * @param tokenValueGenerator the generator to use, or null to use the {@link SecureRandom} (default)
+     */
+    public void setTokenValueGenerator(CsrfTokenValueGenerator tokenValueGenerator) {
+        this.tokenValueGenerator = tokenValueGenerator;
+    }
+
+    /**
+     * When enabled, {@link #generateToken(HttpServletRequest)} returns a token whose value is only generated, and
+     * whose cookie is only written, when {@link CsrfToken#getToken()} is first called, for example when a form is
+     * rendered. Spring Security's {@code CsrfFilter} generates a token for every request without a CSRF cookie, and
+     * only saves it when it is read; with deferral, requests that never read the token also draw no random value.
+     * Tokens that are saved as soon as they are generated, such as the new token saved on login by
+     * {@code CsrfAuthenticationStrategy}, only get their cookie once they are read.
+     * <p>
+     * The token must be read before the response is committed, or the cookie cannot be written. Views that stream
+     * their output should read the token before writing the body.
+     *
+     * @param deferTokenGeneration true to generate tokens on first use, false to generate them immediately (default)
+     */
+    public void setDeferTokenGeneration(boolean deferTokenGeneration) {
+        this.deferTokenGeneration = deferTokenGeneration;
+    }
+
     public void setCsrfHeaderName(String csrfHeaderName) {
         Assert.notNull(csrfHeaderName);
         this.csrfHeaderName = csrfHeaderName;
@@ -86,9 +143,94 @@ public class CookieCsrfTokenRepository implements CsrfTokenRepository {
 
     public void setCsrfCookiePath(String csrfCookiePath) {
         this.csrfCookiePath = csrfCookiePath;
+        this.setCookieHeaderTemplate = null;
     }
 
     public void setCsrfCookieMaxAgeSeconds(int csrfCookieMaxAgeSeconds) {
         this.csrfCookieMaxAgeSeconds = csrfCookieMaxAgeSeconds;
+        this.setCookieHeaderTemplate = null;
+    }
+
+    /**
+     * When enabled, the CSRF cookie is written as a {@code Set-Cookie} header formatted from attributes that are
+     * computed once per configuration, rather than as a {@link Cookie}.
+     *
+     * @param writeSetCookieHeaders true to write {@code Set-Cookie} headers directly, false to use {@link Cookie} (default)
+     */
+    public void setWriteSetCookieHeaders(boolean writeSetCookieHeaders) {
+        this.writeSetCookieHeaders = writeSetCookieHeaders;
+    }
+
+    /**
+     * Sets the {@code SameSite} attribute of the CSRF cookie, which also enables
+     * {@link #setWriteSetCookieHeaders(boolean)}.
+     *
+     * @param csrfCookieSameSite {@code Strict}, {@code Lax} or {@code None}, or null to omit the attribute (default)
+     */
+    public void setCsrfCookieSameSite(String csrfCookieSameSite) {
+        this.setCookieHeaderTemplate = new SetCookieHeaderTemplate(csrfCookiePath, csrfCookieMaxAgeSeconds, true, csrfCookieSameSite);
+        this.csrfCookieSameSite = csrfCookieSameSite;
+        if (csrfCookieSameSite != null) {
+            this.writeSetCookieHeaders = true;
+        }
+    }
+
+    private SetCookieHeaderTemplate getSetCookieHeaderTemplate() {
+        SetCookieHeaderTemplate setCookieHeaderTemplate = this.setCookieHeaderTemplate;
+        if (setCookieHeaderTemplate == null) {
+            setCookieHeaderTemplate = new SetCookieHeaderTemplate(csrfCookiePath, csrfCookieMaxAgeSeconds, true, csrfCookieSameSite);
+            this.setCookieHeaderTemplate = setCookieHeaderTemplate;
+        }
+        return setCookieHeaderTemplate;
+    }
+
+    /**
+     * A token that generates its value on first use, and writes its cookie then if it has already been saved.
+     */
+    private static final class DeferredCsrfToken implements CsrfToken {
+        private final String headerName;
+        private final String parameterName;
+        private transient CookieCsrfTokenRepository repository;
+        private transient HttpServletRequest request;
+        private transient HttpServletResponse response;
+        private String tokenValue;
+
+        DeferredCsrfToken(CookieCsrfTokenRepository repository) {
+            this.headerName = repository.csrfHeaderName;
+            this.parameterName = repository.csrfParameterName;
+            this.repository = repository;
+        }
+
+        @Override
+        public String getHeaderName() {
+            return headerName;
+        }
+
+        @Override
+        public String getParameterName() {
+            return parameterName;
+        }
+
+        @Override
+        public String getToken() {
+            if (tokenValue == null) {
+                tokenValue = repository.generateTokenValue();
+                if (response != null) {
+                    repository.addCsrfCookie(request, response, tokenValue);
+                }
+                request = null;
+                response = null;
+            }
+            return tokenValue;
+        }
+
+        void saveOnAccess(HttpServletRequest request, HttpServletResponse response) {
+            if (tokenValue != null) {
+                repository.addCsrfCookie(request, response, tokenValue);
+            } else {
+                this.request = request;
+                this.response = response;
+            }
+        }
     }
 }
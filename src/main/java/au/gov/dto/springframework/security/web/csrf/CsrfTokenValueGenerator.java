@@ -0,0 +1,9 @@
+package au.gov.dto.springframework.security.web.csrf;
+
+/**
+ * Generates the random values of CSRF tokens issued by {@link CookieCsrfTokenRepository}. Implementations must be
+ * thread-safe and produce values that are unpredictable and safe to use in a cookie.
+ */
+public interface CsrfTokenValueGenerator {
+    String generateTokenValue();
+}
@@ -0,0 +1,182 @@
+package au.gov.dto.springframework.security.web.csrf;
+
+import au.gov.dto.springframework.security.web.context.CookieSecurityContextRepository;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.CsrfTokenRepository;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+import org.springframework.util.Assert;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Cross-site request forgery (CSRF) protection with tokens derived from the authentication token, so that no CSRF
+ * cookie is needed and no random number is drawn on the request path. A token is the time it was issued followed by
+ * an HMAC over the name of the current {@link Authentication}, the identifier of the authentication token loaded by
+ * {@link CookieSecurityContextRepository}, and the issue time. The identifier is random and changes with every login,
+ * so a token stops verifying once the user logs out, and a token from one login cannot be used in another. Only
+ * someone who knows the key can produce a token that verifies.
+ * <p>
+ * {@link #loadToken(HttpServletRequest)} returns the token submitted with the request if it verifies for the current
+ * authentication and has not expired, so that {@link org.springframework.security.web.csrf.CsrfFilter} accepts it,
+ * and a newly issued token otherwise. Requests without an authentication token identifier are handled by a delegate
+ * repository, a {@link CookieCsrfTokenRepository} by default. These are requests without an authenticated user, such
+ * as the login form, since a token bound to no user could be used against every anonymous user; and requests whose
+ * authentication cookie was issued without an identifier, by an earlier version or another {@code TokenEncryption}.
+ * <p>
+ * The security context must be loaded by {@link CookieSecurityContextRepository} before the {@code CsrfFilter} runs,
+ * as it is by Spring Security's default filter order.
+ */
+public class HmacCsrfTokenRepository implements CsrfTokenRepository {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final char ISSUED_AT_SEPARATOR = '.';
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+
+    private CsrfTokenRepository anonymousCsrfTokenRepository = new CookieCsrfTokenRepository();
+    private String csrfHeaderName = "X-CSRF-TOKEN";
+    private String csrfParameterName = "_csrf";
+    private int maxTokenAgeSeconds = 86400;
+
+    /**
+     * @param csrfTokenKeyBase64 the key used to derive tokens, of at least 256 bits, Base64 encoded. It should not be
+     *                           the key used to encrypt the authentication cookie.
+     */
+    public HmacCsrfTokenRepository(String csrfTokenKeyBase64) {
+        Assert.notNull(csrfTokenKeyBase64);
+        byte[] csrfTokenKey = Base64.getDecoder().decode(csrfTokenKeyBase64);
+        Assert.isTrue(csrfTokenKey.length >= 32, "CSRF token key must be at least 256 bits");
+        this.key = new SecretKeySpec(csrfTokenKey, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::createMac);
+        createMac();  // Fail fast on an unusable key
+    }
+
+    @Override
+    public CsrfToken generateToken(HttpServletRequest request) {
+        String identity = getIdentity(request);
+        if (identity == null) {
+            return anonymousCsrfTokenRepository.generateToken(request);
+        }
+        return createToken(createTokenValue(identity, Long.toString(System.currentTimeMillis(), 36)));
+    }
+
+    /**
+     * Tokens are not stored, so this only delegates for requests without an authentication token identifier.
+     */
+    @Override
+    public void saveToken(CsrfToken token, HttpServletRequest request, HttpServletResponse response) {
+        if (getIdentity(request) == null) {
+            anonymousCsrfTokenRepository.saveToken(token, request, response);
+        }
+    }
+
+    @Override
+    public CsrfToken loadToken(HttpServletRequest request) {
+        String identity = getIdentity(request);
+        if (identity == null) {
+            return anonymousCsrfTokenRepository.loadToken(request);
+        }
+        String submittedToken = request.getHeader(csrfHeaderName);
+        if (submittedToken == null) {
+            submittedToken = request.getParameter(csrfParameterName);
+        }
+        if (submittedToken != null && isValidToken(identity, submittedToken)) {
+            return createToken(submittedToken);
+        }
+        return generateToken(request);
+    }
+
+    boolean isValidToken(String identity, String tokenValue) {
+        int separatorIndex = tokenValue.indexOf(ISSUED_AT_SEPARATOR);
+        if (separatorIndex <= 0) {
+            return false;
+        }
+        String issuedAt = tokenValue.substring(0, separatorIndex);
+        long issuedAtMillis;
+        try {
+            issuedAtMillis = Long.parseLong(issuedAt, 36);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (maxTokenAgeSeconds >= 0 && System.currentTimeMillis() - issuedAtMillis > maxTokenAgeSeconds * 1000L) {
+            return false;
+        }
+        byte[] expected = createTokenValue(identity, issuedAt).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, tokenValue.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String createTokenValue(String identity, String issuedAt) {
+        Mac mac = macs.get();
+        mac.update(identity.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        byte[] hmac = mac.doFinal(issuedAt.getBytes(StandardCharsets.US_ASCII));
+        return issuedAt + ISSUED_AT_SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hmac, 16));
+    }
+
+    private CsrfToken createToken(String tokenValue) {
+        return new DefaultCsrfToken(csrfHeaderName, csrfParameterName, tokenValue);
+    }
+
+    /**
+     * @return the name of the authenticated user and the identifier of their authentication token, separated by a
+     *         zero character, or null if there is no authenticated user or no identifier
+     */
+    private String getIdentity(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken || !authentication.isAuthenticated()) {
+            return null;
+        }
+        Object tokenId = request.getAttribute(CookieSecurityContextRepository.AUTHENTICATION_TOKEN_ID_ATTRIBUTE_NAME);
+        if (!(tokenId instanceof String)) {
+            return null;
+        }
+        return authentication.getName() + '\0' + tokenId;
+    }
+
+    private Mac createMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to create " + HMAC_ALGORITHM + " for CSRF tokens", e);
+        }
+    }
+
+    /**
+     * Sets the repository for requests without an authenticated user. It should use the same header and parameter
+     * names as this repository.
+     */
+    public void setAnonymousCsrfTokenRepository(CsrfTokenRepository anonymousCsrfTokenRepository) {
+        Assert.notNull(anonymousCsrfTokenRepository);
+        this.anonymousCsrfTokenRepository = anonymousCsrfTokenRepository;
+    }
+
+    public void setCsrfHeaderName(String csrfHeaderName) {
+        Assert.notNull(csrfHeaderName);
+        this.csrfHeaderName = csrfHeaderName;
+    }
+
+    public void setCsrfParameterName(String csrfParameterName) {
+        Assert.notNull(csrfParameterName);
+        this.csrfParameterName = csrfParameterName;
+    }
+
+    /**
+     * @param maxTokenAgeSeconds how long a token remains valid after it is issued, or a negative value for no limit
+     */
+    public void setMaxTokenAgeSeconds(int maxTokenAgeSeconds) {
+        this.maxTokenAgeSeconds = maxTokenAgeSeconds;
+    }
+}
@@ -1,7 +1,15 @@
 package au.gov.dto.springframework.security.web.savedrequest;
 
+import au.gov.dto.servlet.http.ForwardedHeaders;
+import au.gov.dto.servlet.http.RequestCookies;
+import au.gov.dto.servlet.http.SetCookieHeaderTemplate;
+import au.gov.dto.springframework.security.web.util.matcher.HtmlNavigationRequestMatcher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.security.web.savedrequest.RequestCache;
 import org.springframework.security.web.savedrequest.SavedRequest;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.util.Assert;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.servlet.http.Cookie;
@@ -10,41 +18,58 @@ import javax.servlet.http.HttpServletResponse;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.Base64;
-import java.util.Optional;
 
 public class CookieRequestCache implements RequestCache {
     public static final String DEFAULT_SAVEDREQUEST_COOKIE_NAME = "savedrequest";
 
     private final Base64.Encoder base64Encoder = Base64.getMimeEncoder(Integer.MAX_VALUE, new byte[]{'\n'});
     private final Base64.Decoder base64Decoder = Base64.getMimeDecoder();
+    private final Base64.Encoder base64UrlEncoder = Base64.getUrlEncoder().withoutPadding();
+    private final Base64.Decoder base64UrlDecoder = Base64.getUrlDecoder();
+    private final Log logger = LogFactory.getLog(this.getClass());
 
     private String savedRequestCookieName = DEFAULT_SAVEDREQUEST_COOKIE_NAME;
     private String savedRequestCookiePath = null;
     private int savedRequestCookieMaxAgeSeconds = -1;  // default to session cookie (non-persistent)
+    private boolean writeSetCookieHeaders = false;
+    private String savedRequestCookieSameSite = null;
+    private volatile SetCookieHeaderTemplate setCookieHeaderTemplate = null;
+    private boolean fastSavedRequestUrl = false;
+    private int maxSavedRequestUrlLength = 2048;
+    private RequestMatcher requestMatcher = new HtmlNavigationRequestMatcher();
 
     @Override
     public void saveRequest(HttpServletRequest request, HttpServletResponse response) {
+        if (!requestMatcher.matches(request)) {
+            return;
+        }
+        if (fastSavedRequestUrl) {
+            byte[] redirectUrl = SavedRequestUrl.build(request, maxSavedRequestUrlLength);
+            if (redirectUrl == null) {
+                logger.debug("Not saving request with URL longer than " + maxSavedRequestUrlLength + " characters");
+                return;
+            }
+            addSavedRequestCookie(request, response, base64UrlEncoder.encodeToString(redirectUrl));
+            return;
+        }
         String requestUrl = request.getRequestURL().toString();
         try {
             URI requestUri = new URI(requestUrl);
+            ForwardedHeaders forwardedHeaders = ForwardedHeaders.get(request);
+            boolean secure = forwardedHeaders != null ? forwardedHeaders.isSecure() : request.isSecure();
+            int port = forwardedHeaders != null ? forwardedHeaders.getPort() : requestUri.getPort();
             UriComponentsBuilder uriComponentsBuilder = UriComponentsBuilder.newInstance()
-                    .scheme(request.isSecure() ? "https" : "http")
-                    .host(requestUri.getHost())
+                    .scheme(secure ? "https" : "http")
+                    .host(forwardedHeaders != null ? forwardedHeaders.getHost() : requestUri.getHost())
                     .path(requestUri.getPath())
                     .query(request.getQueryString());
-            if ((request.isSecure() && requestUri.getPort() != 443) || (!request.isSecure() && requestUri.getPort() != 80)) {
-                uriComponentsBuilder.port(requestUri.getPort());
+            if ((secure && port != 443) || (!secure && port != 80)) {
+                uriComponentsBuilder.port(port);
             }
             String redirectUrl = uriComponentsBuilder.build().toUriString();
             String redirectUrlBase64 = base64Encoder.encodeToString(redirectUrl.getBytes(StandardCharsets.ISO_8859_1));
-            Cookie savedRequestCookie = new Cookie(savedRequestCookieName, redirectUrlBase64);
-            savedRequestCookie.setPath(savedRequestCookiePath);
-            savedRequestCookie.setMaxAge(savedRequestCookieMaxAgeSeconds);
-            savedRequestCookie.setSecure(request.isSecure());
-            savedRequestCookie.setHttpOnly(true);
-            response.addCookie(savedRequestCookie);
+            addSavedRequestCookie(request, response, redirectUrlBase64);
         } catch (URISyntaxException e) {
             throw new RuntimeException("Problem creating URI from request.getRequestURL() = [" + requestUrl + "]", e);
         }
@@ -52,21 +77,41 @@ public class CookieRequestCache implements RequestCache {
 
     @Override
     public SavedRequest getRequest(HttpServletRequest request, HttpServletResponse response) {
-        if (request.getCookies() == null) {
+        String savedRequestCookieValue = RequestCookies.of(request).getValue(savedRequestCookieName);
+        if (savedRequestCookieValue == null) {
             return null;
         }
-        Optional<Cookie> maybeCookie = Arrays.stream(request.getCookies()).filter(cookie -> cookie != null && savedRequestCookieName.equals(cookie.getName())).findFirst();
-        if (!maybeCookie.isPresent()) {
-            return null;
-        }
-        Cookie savedRequestCookie = maybeCookie.get();
-        String redirectUrl = new String(base64Decoder.decode(savedRequestCookie.getValue()), StandardCharsets.ISO_8859_1);
+        String redirectUrl = new String(decodeSavedRequestCookieValue(savedRequestCookieValue), StandardCharsets.ISO_8859_1);
         return new SimpleSavedRequest(redirectUrl);
     }
 
+    private void addSavedRequestCookie(HttpServletRequest request, HttpServletResponse response, String redirectUrlBase64) {
+        if (writeSetCookieHeaders) {
+            getSetCookieHeaderTemplate().addCookie(response, savedRequestCookieName, redirectUrlBase64, ForwardedHeaders.isSecure(request));
+            return;
+        }
+        Cookie savedRequestCookie = new Cookie(savedRequestCookieName, redirectUrlBase64);
+        savedRequestCookie.setPath(savedRequestCookiePath);
+        savedRequestCookie.setMaxAge(savedRequestCookieMaxAgeSeconds);
+        savedRequestCookie.setSecure(ForwardedHeaders.isSecure(request));
+        savedRequestCookie.setHttpOnly(true);
+        response.addCookie(savedRequestCookie);
+    }
+
+    /**
+     * Decodes both base64url values and the MIME base64 values written by earlier versions. The two alphabets only
+     * differ in two characters, so a value containing neither decodes the same either way.
+     */
+    private byte[] decodeSavedRequestCookieValue(String savedRequestCookieValue) {
+        if (savedRequestCookieValue.indexOf('-') >= 0 || savedRequestCookieValue.indexOf('_') >= 0) {
+            return base64UrlDecoder.decode(savedRequestCookieValue);
+        }
+        return base64Decoder.decode(savedRequestCookieValue);
+    }
+
     @Override
     public HttpServletRequest getMatchingRequest(HttpServletRequest request, HttpServletResponse response) {
-        if (getRequest(request, response) != null) {
+        if (RequestCookies.of(request).contains(savedRequestCookieName)) {
             removeRequest(request, response);
         }
         return null;
@@ -74,23 +119,99 @@ public class CookieRequestCache implements RequestCache {
 
     @Override
     public void removeRequest(HttpServletRequest request, HttpServletResponse response) {
+        if (writeSetCookieHeaders) {
+            getSetCookieHeaderTemplate().addExpiredCookie(response, savedRequestCookieName, ForwardedHeaders.isSecure(request));
+            return;
+        }
         Cookie removeSavedRequestCookie = new Cookie(savedRequestCookieName, "");
         removeSavedRequestCookie.setPath(savedRequestCookiePath);
         removeSavedRequestCookie.setMaxAge(0);
-        removeSavedRequestCookie.setSecure(request.isSecure());
+        removeSavedRequestCookie.setSecure(ForwardedHeaders.isSecure(request));
         removeSavedRequestCookie.setHttpOnly(true);
         response.addCookie(removeSavedRequestCookie);
     }
 
+    /**
+     * Sets the requests that are saved, so that requests the user would not want to return to after logging in, and
+     * that would otherwise replace the saved request cookie, are not. By default only {@code GET} requests that
+     * accept {@code text/html} are saved; see {@link HtmlNavigationRequestMatcher}. Use
+     * {@link org.springframework.security.web.util.matcher.AnyRequestMatcher} to save every request.
+     */
+    public void setRequestMatcher(RequestMatcher requestMatcher) {
+        Assert.notNull(requestMatcher);
+        this.requestMatcher = requestMatcher;
+    }
+
     public void setSavedRequestCookieName(String savedRequestCookieName) {
         this.savedRequestCookieName = savedRequestCookieName;
     }
 
     public void setSavedRequestCookiePath(String savedRequestCookiePath) {
         this.savedRequestCookiePath = savedRequestCookiePath;
+        this.setCookieHeaderTemplate = null;
     }
 
     public void setSavedRequestCookieMaxAgeSeconds(int savedRequestCookieMaxAgeSeconds) {
         this.savedRequestCookieMaxAgeSeconds = savedRequestCookieMaxAgeSeconds;
+        this.setCookieHeaderTemplate = null;
+    }
+
+    /**
+     * When enabled, the saved request URL is built directly from the scheme, server name, port, URI and query string
+     * of the request, with characters outside printable ASCII percent-encoded as UTF-8, and is stored as unpadded
+     * base64url. Otherwise the request URL is parsed and rebuilt, and stored as MIME base64 of its ISO-8859-1 bytes.
+     * Saved request cookies in either format are read whatever this setting, but versions without this setting cannot
+     * read the new format, so enable it only once every instance of the application can.
+     *
+     * @param fastSavedRequestUrl true to build and encode the saved request URL directly, false to parse and rebuild
+     *                            it (default)
+     */
+    public void setFastSavedRequestUrl(boolean fastSavedRequestUrl) {
+        this.fastSavedRequestUrl = fastSavedRequestUrl;
+    }
+
+    /**
+     * Sets the maximum length of a URL saved by {@link #setFastSavedRequestUrl(boolean)}. The query string is left
+     * out of longer URLs, and no request is saved if the URL is still too long without it.
+     *
+     * @param maxSavedRequestUrlLength the maximum length of a saved request URL, 2048 by default
+     */
+    public void setMaxSavedRequestUrlLength(int maxSavedRequestUrlLength) {
+        Assert.isTrue(maxSavedRequestUrlLength > 0, "maxSavedRequestUrlLength must be greater than 0");
+        this.maxSavedRequestUrlLength = maxSavedRequestUrlLength;
+    }
+
+    /**
+     * When enabled, the saved request cookie is written as a {@code Set-Cookie} header formatted from attributes that
+     * are computed once per configuration, rather than as a {@link Cookie}.
+     *
+     * @param writeSetCookieHeaders true to write {@code Set-Cookie} headers directly, false to use {@link Cookie} (default)
+     */
+    public void setWriteSetCookieHeaders(boolean writeSetCookieHeaders) {
+        this.writeSetCookieHeaders = writeSetCookieHeaders;
+    }
+
+    /**
+     * Sets the {@code SameSite} attribute of the saved request cookie, which also enables
+     * {@link #setWriteSetCookieHeaders(boolean)}. The cookie is read on the request that completes a login, which may
+     * be a cross-site redirect from an identity provider, so {@code Strict} is rarely appropriate.
+     *
+     * @param savedRequestCookieSameSite {@code Strict}, {@code Lax} or {@code None}, or null to omit the attribute (default)
+     */
+    public void setSavedRequestCookieSameSite(String savedRequestCookieSameSite) {
+        this.setCookieHeaderTemplate = new SetCookieHeaderTemplate(savedRequestCookiePath, savedRequestCookieMaxAgeSeconds, true, savedRequestCookieSameSite);
+        this.savedRequestCookieSameSite = savedRequestCookieSameSite;
+        if (savedRequestCookieSameSite != null) {
+            this.writeSetCookieHeaders = true;
+        }
+    }
+
+    private SetCookieHeaderTemplate getSetCookieHeaderTemplate() {
+        SetCookieHeaderTemplate setCookieHeaderTemplate = this.setCookieHeaderTemplate;
+        if (setCookieHeaderTemplate == null) {
+            setCookieHeaderTemplate = new SetCookieHeaderTemplate(savedRequestCookiePath, savedRequestCookieMaxAgeSeconds, true, savedRequestCookieSameSite);
+            this.setCookieHeaderTemplate = setCookieHeaderTemplate;
+        }
+        return setCookieHeaderTemplate;
     }
 }
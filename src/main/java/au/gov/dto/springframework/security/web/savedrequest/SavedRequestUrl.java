@@ -0,0 +1,128 @@
+package au.gov.dto.springframework.security.web.savedrequest;
+
+import au.gov.dto.servlet.http.ForwardedHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Builds the redirect URL of a saved request as ASCII bytes directly from the parts of the request, or the
+ * {@link ForwardedHeaders} stored for it, without formatting, parsing and rebuilding the request URL. Characters
+ * outside printable ASCII are percent-encoded as UTF-8, so the URL survives the round trip through the saved request
+ * cookie whatever the request contained.
+ */
+final class SavedRequestUrl {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private SavedRequestUrl() {
+    }
+
+    /**
+     * @return the URL as ASCII bytes; without the query string if the full URL is longer than {@code maxLength}; or
+     * null if even the URL without a query string is too long
+     */
+    static byte[] build(HttpServletRequest request, int maxLength) {
+        ForwardedHeaders forwardedHeaders = ForwardedHeaders.get(request);
+        boolean secure = forwardedHeaders != null ? forwardedHeaders.isSecure() : request.isSecure();
+        String scheme = secure ? "https://" : "http://";
+        String host = forwardedHeaders != null ? forwardedHeaders.getHost() : request.getServerName();
+        boolean bracketHost = host.indexOf(':') >= 0 && host.charAt(0) != '[';  // IPv6 literal
+        int port = forwardedHeaders != null ? forwardedHeaders.getPort() : request.getServerPort();
+        boolean includePort = port > 0 && port != (secure ? 443 : 80);
+        String portString = includePort ? Integer.toString(port) : "";
+        String path = request.getRequestURI();
+        String query = request.getQueryString();
+
+        int length = scheme.length() + encodedLength(host) + (bracketHost ? 2 : 0)
+                + (includePort ? 1 + portString.length() : 0) + encodedLength(path);
+        if (length > maxLength) {
+            return null;
+        }
+        if (query != null) {
+            int lengthWithQuery = length + 1 + encodedLength(query);
+            if (lengthWithQuery <= maxLength) {
+                length = lengthWithQuery;
+            } else {
+                query = null;
+            }
+        }
+
+        byte[] url = new byte[length];
+        int position = appendEncoded(url, 0, scheme);
+        if (bracketHost) {
+            url[position++] = '[';
+        }
+        position = appendEncoded(url, position, host);
+        if (bracketHost) {
+            url[position++] = ']';
+        }
+        if (includePort) {
+            url[position++] = ':';
+            position = appendEncoded(url, position, portString);
+        }
+        position = appendEncoded(url, position, path);
+        if (query != null) {
+            url[position++] = '?';
+            appendEncoded(url, position, query);
+        }
+        return url;
+    }
+
+    private static int encodedLength(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c > 0x20 && c < 0x7f) {
+                length += 1;
+            } else if (c < 0x80) {
+                length += 3;
+            } else if (c < 0x800) {
+                length += 6;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 12;
+                i++;
+            } else {
+                length += 9;
+            }
+        }
+        return length;
+    }
+
+    private static int appendEncoded(byte[] url, int position, String value) {
+        if (value == null) {
+            return position;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c > 0x20 && c < 0x7f) {
+                url[position++] = (byte) c;
+            } else if (c < 0x80) {
+                position = appendEscaped(url, position, c);
+            } else if (c < 0x800) {
+                position = appendEscaped(url, position, 0xc0 | (c >> 6));
+                position = appendEscaped(url, position, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                position = appendEscaped(url, position, 0xf0 | (codePoint >> 18));
+                position = appendEscaped(url, position, 0x80 | ((codePoint >> 12) & 0x3f));
+                position = appendEscaped(url, position, 0x80 | ((codePoint >> 6) & 0x3f));
+                position = appendEscaped(url, position, 0x80 | (codePoint & 0x3f));
+            } else {
+                int codePoint = Character.isSurrogate(c) ? 0xfffd : c;  // Unpaired surrogates become U+FFFD
+                position = appendEscaped(url, position, 0xe0 | (codePoint >> 12));
+                position = appendEscaped(url, position, 0x80 | ((codePoint >> 6) & 0x3f));
+                position = appendEscaped(url, position, 0x80 | (codePoint & 0x3f));
+            }
+        }
+        return position;
+    }
+
+    private static int appendEscaped(byte[] url, int position, int octet) {
+        url[position] = '%';
+        url[position + 1] = (byte) HEX_DIGITS[(octet >> 4) & 0xf];
+        url[position + 2] = (byte) HEX_DIGITS[octet & 0xf];
+        return position + 3;
+    }
+}
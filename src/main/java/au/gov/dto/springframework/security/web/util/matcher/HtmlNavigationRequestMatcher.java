@@ -0,0 +1,36 @@
+package au.gov.dto.springframework.security.web.util.matcher;
+
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Matches {@code GET} requests that accept {@code text/html} and are not made by scripts with
+ * {@code X-Requested-With: XMLHttpRequest}, which are the page navigations worth returning to after a login. Requests
+ * for images, scripts and stylesheets, and API calls, are not matched. The headers are scanned in place without
+ * parsing the {@code Accept} header into media types.
+ */
+public class HtmlNavigationRequestMatcher implements RequestMatcher {
+    private static final String TEXT_HTML = "text/html";
+
+    @Override
+    public boolean matches(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod())) {
+            return false;
+        }
+        if ("XMLHttpRequest".equalsIgnoreCase(request.getHeader("X-Requested-With"))) {
+            return false;
+        }
+        String accept = request.getHeader("Accept");
+        return accept != null && containsIgnoreCase(accept, TEXT_HTML);
+    }
+
+    private static boolean containsIgnoreCase(String value, String search) {
+        for (int i = 0; i + search.length() <= value.length(); i++) {
+            if (value.regionMatches(true, i, search, 0, search.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+package au.gov.dto.springframework.security.web.util.matcher;
+
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.util.Assert;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Matches requests whose path, relative to the context path, starts with any of a set of prefixes, optionally
+ * restricted to one HTTP method. The prefixes are compiled into a trie, so matching takes time proportional to the
+ * length of the request path regardless of the number of prefixes, and does not allocate.
+ * <p>
+ * A prefix ending in {@code /}, such as {@code /static/}, matches every path that starts with it. Any other prefix,
+ * such as {@code /health}, matches that exact path and every path below it, such as {@code /health/db}, but not
+ * {@code /healthcheck}.
+ */
+public class PathPrefixRequestMatcher implements RequestMatcher {
+    private final String httpMethod;
+    private final Node root = new Node();
+
+    public PathPrefixRequestMatcher(Collection<String> pathPrefixes) {
+        this(null, pathPrefixes);
+    }
+
+    /**
+     * @param httpMethod the HTTP method to match, or null to match any method
+     * @param pathPrefixes the path prefixes to match
+     */
+    public PathPrefixRequestMatcher(String httpMethod, Collection<String> pathPrefixes) {
+        Assert.notNull(pathPrefixes);
+        this.httpMethod = httpMethod;
+        for (String pathPrefix : pathPrefixes) {
+            Assert.hasLength(pathPrefix, "Path prefix must not be empty");
+            Assert.isTrue(pathPrefix.charAt(0) == '/', "Path prefix must start with /: " + pathPrefix);
+            if (pathPrefix.endsWith("/")) {
+                root.insert(pathPrefix).matchesAnySuffix = true;
+            } else {
+                Node node = root.insert(pathPrefix);
+                node.matchesExactly = true;
+                node.child('/', true).matchesAnySuffix = true;
+            }
+        }
+    }
+
+    @Override
+    public boolean matches(HttpServletRequest request) {
+        if (httpMethod != null && !httpMethod.equals(request.getMethod())) {
+            return false;
+        }
+        Node node = root;
+        String servletPath = request.getServletPath();
+        if (servletPath != null) {
+            for (int i = 0; i < servletPath.length(); i++) {
+                node = node.child(servletPath.charAt(i), false);
+                if (node == null) {
+                    return false;
+                }
+                if (node.matchesAnySuffix) {
+                    return true;
+                }
+            }
+        }
+        String pathInfo = request.getPathInfo();
+        if (pathInfo != null) {
+            for (int i = 0; i < pathInfo.length(); i++) {
+                node = node.child(pathInfo.charAt(i), false);
+                if (node == null) {
+                    return false;
+                }
+                if (node.matchesAnySuffix) {
+                    return true;
+                }
+            }
+        }
+        return node.matchesExactly;
+    }
+
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean matchesExactly;
+        private boolean matchesAnySuffix;
+
+        Node insert(String path) {
+            Node node = this;
+            for (int i = 0; i < path.length(); i++) {
+                node = node.child(path.charAt(i), true);
+            }
+            return node;
+        }
+
+        Node child(char key, boolean create) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return children[index];
+            }
+            if (!create) {
+                return null;
+            }
+            int insertionPoint = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertionPoint);
+            System.arraycopy(children, 0, newChildren, 0, insertionPoint);
+            newKeys[insertionPoint] = key;
+            newChildren[insertionPoint] = new Node();
+            System.arraycopy(keys, insertionPoint, newKeys, insertionPoint + 1, keys.length - insertionPoint);
+            System.arraycopy(children, insertionPoint, newChildren, insertionPoint + 1, children.length - insertionPoint);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[insertionPoint];
+        }
+    }
+}
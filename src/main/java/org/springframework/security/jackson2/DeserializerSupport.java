@@ -0,0 +1,197 @@
+package org.springframework.security.jackson2;
+
+import au.gov.dto.springframework.security.web.context.AuthorityIds;
+import au.gov.dto.springframework.security.web.context.AuthorityIdsFormat;
+import au.gov.dto.springframework.security.web.context.AuthorityIdsMismatchException;
+import au.gov.dto.springframework.security.web.context.GrantedAuthoritiesSerializer;
+import au.gov.dto.springframework.security.web.context.GrantedAuthorityInterner;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Token-level helpers shared by the deserializers in this package, so that a token is read in a single pass without
+ * building intermediate {@link com.fasterxml.jackson.databind.JsonNode} trees. The value readers keep the lenient
+ * conversions of {@link com.fasterxml.jackson.databind.JsonNode#asText()} and
+ * {@link com.fasterxml.jackson.databind.JsonNode#asBoolean()} that the tree-based deserializers relied on.
+ */
+final class DeserializerSupport {
+    static final String CLASS_FIELD = "@class";
+
+    private static final String ROLE_FIELD = "role";
+    private static final String SIMPLE_GRANTED_AUTHORITY_CLASS = SimpleGrantedAuthority.class.getName();
+
+    private DeserializerSupport() {
+    }
+
+    /**
+     * Moves a parser positioned by Jackson at the start of an object, or at its first field after the type id has
+     * been consumed, to the first field.
+     */
+    static JsonToken startObject(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = parser.nextToken();
+        }
+        return token;
+    }
+
+    /**
+     * Reads the current value as {@link com.fasterxml.jackson.databind.JsonNode#asText()} would, skipping arrays
+     * and objects.
+     */
+    static String readText(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_STRING:
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return parser.getText();
+            case VALUE_NULL:
+                return "null";
+            default:
+                parser.skipChildren();
+                return "";
+        }
+    }
+
+    /**
+     * Reads the current value as {@link com.fasterxml.jackson.databind.JsonNode#asBoolean()} would, skipping arrays
+     * and objects.
+     */
+    static boolean readBoolean(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_TRUE:
+                return true;
+            case VALUE_NUMBER_INT:
+                return parser.getIntValue() != 0;
+            case VALUE_STRING:
+                return "true".equals(parser.getText().trim());
+            default:
+                parser.skipChildren();
+                return false;
+        }
+    }
+
+    /**
+     * Reads a collection of authorities serialized with default typing as {@code ["collection class", [...]]}.
+     * Collections made up only of {@link SimpleGrantedAuthority} resolve to a shared list from
+     * {@link GrantedAuthorityInterner}; other authority types are bound by the mapper. Authorities written as ids by
+     * {@link GrantedAuthoritiesSerializer} are resolved with {@code authorityIds}. Values of any other shape are bound
+     * by the mapper as {@code fallbackType}.
+     *
+     * @param authorityIds the ids to resolve authorities written as ids with, or null if there are none
+     * @throws AuthorityIdsMismatchException if the authorities were written as ids that {@code authorityIds} cannot
+     *                                       resolve
+     */
+    static Collection<? extends GrantedAuthority> readAuthorities(JsonParser parser, ObjectMapper mapper, TypeReference<?> fallbackType, AuthorityIds authorityIds) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            parser.nextToken();
+            if (AuthorityIdsFormat.isAuthorityIds(parser)) {
+                return AuthorityIdsFormat.read(parser, authorityIds);
+            }
+            return mapper.readValue(bufferObject(parser, mapper, null), fallbackType);
+        }
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            return mapper.readValue(parser, fallbackType);
+        }
+        JsonToken token = parser.nextToken();
+        String collectionClass = null;
+        if (token == JsonToken.VALUE_STRING) {
+            collectionClass = parser.getText();
+            token = parser.nextToken();
+        }
+        if (collectionClass == null || token != JsonToken.START_ARRAY) {
+            TokenBuffer buffer = new TokenBuffer(mapper);
+            buffer.writeStartArray();
+            if (collectionClass != null) {
+                buffer.writeString(collectionClass);
+            }
+            for (; token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                buffer.copyCurrentStructure(parser);
+            }
+            buffer.writeEndArray();
+            return mapper.readValue(buffer.asParser(), fallbackType);
+        }
+        List<String> roles = new ArrayList<>();
+        List<GrantedAuthority> authorities = null;
+        for (token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            GrantedAuthority authority = readAuthority(parser, mapper);
+            if (authorities == null && authority.getClass() == SimpleGrantedAuthority.class) {
+                roles.add(authority.getAuthority());
+                continue;
+            }
+            if (authorities == null) {
+                authorities = new ArrayList<>(roles.size() + 1);
+                for (String role : roles) {
+                    authorities.add(GrantedAuthorityInterner.intern(role));
+                }
+            }
+            authorities.add(authority);
+        }
+        parser.nextToken();
+        return authorities != null ? authorities : GrantedAuthorityInterner.intern(roles);
+    }
+
+    private static GrantedAuthority readAuthority(JsonParser parser, ObjectMapper mapper) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            return mapper.readValue(parser, GrantedAuthority.class);
+        }
+        JsonToken token = parser.nextToken();
+        String className = null;
+        if (token == JsonToken.FIELD_NAME && CLASS_FIELD.equals(parser.getCurrentName())) {
+            if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                className = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+            token = parser.nextToken();
+        }
+        if (!SIMPLE_GRANTED_AUTHORITY_CLASS.equals(className)) {
+            return mapper.readValue(bufferObject(parser, mapper, className), GrantedAuthority.class);
+        }
+        String role = null;
+        for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if (ROLE_FIELD.equals(fieldName) && parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+                role = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return role != null ? GrantedAuthorityInterner.intern(role) : new SimpleGrantedAuthority(null);
+    }
+
+    /**
+     * Copies the remaining fields of the current object, starting at the current field, to a buffer so that they
+     * can be bound by the mapper once the type of the object is known.
+     *
+     * @param className the type id to write as the first field, or null to omit it
+     */
+    static JsonParser bufferObject(JsonParser parser, ObjectMapper mapper, String className) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(mapper);
+        buffer.writeStartObject();
+        if (className != null) {
+            buffer.writeStringField(CLASS_FIELD, className);
+        }
+        for (JsonToken token = parser.getCurrentToken(); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            buffer.copyCurrentStructure(parser);
+        }
+        buffer.writeEndObject();
+        return buffer.asParser();
+    }
+}
@@ -16,20 +16,25 @@
 
 package org.springframework.security.jackson2;
 
+import au.gov.dto.springframework.security.web.context.AuthorityIds;
+import au.gov.dto.springframework.security.web.context.AuthorityIdsMismatchException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.MissingNode;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
+import org.springframework.util.Assert;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Custom Deserializer for {@link User} class. This is already registered with {@link UserMixin}.
@@ -39,6 +44,19 @@ import java.util.Set;
  * @see UserMixin
  */
 public class UserDeserializer extends JsonDeserializer<User> {
+    private final Supplier<? extends AuthorityIds> authorityIds;
+
+    public UserDeserializer() {
+        this(() -> null);
+    }
+
+    /**
+     * Creates a deserializer that resolves authorities written as ids with the supplied {@link AuthorityIds}.
+     */
+    public UserDeserializer(Supplier<? extends AuthorityIds> authorityIds) {
+        Assert.notNull(authorityIds);
+        this.authorityIds = authorityIds;
+    }
 
     /**
      * This method will create {@link User} object. It will ensure successful object creation even if password key is null in
@@ -47,19 +65,62 @@ public class UserDeserializer extends JsonDeserializer<User> {
      */
     @Override
     public User deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
-        ObjectMapper mapper = (ObjectMapper) jp.getCodec();
-        JsonNode jsonNode = mapper.readTree(jp);
-        Set<GrantedAuthority> authorities = mapper.convertValue(jsonNode.get("authorities"), new TypeReference<Set<SimpleGrantedAuthority>>() {
-        });
-        return new User(
-                readJsonNode(jsonNode, "username").asText(), readJsonNode(jsonNode, "password").asText(),
-                readJsonNode(jsonNode, "enabled").asBoolean(), readJsonNode(jsonNode, "accountNonExpired").asBoolean(),
-                readJsonNode(jsonNode, "credentialsNonExpired").asBoolean(),
-                readJsonNode(jsonNode, "accountNonLocked").asBoolean(), authorities
-        );
+        DeserializerSupport.startObject(jp);
+        return readUser(jp, (ObjectMapper) jp.getCodec(), authorityIds.get());
+    }
+
+    /**
+     * Reads the fields of a {@link User} in a single pass, starting at the current field of the object.
+     */
+    static User readUser(JsonParser jp, ObjectMapper mapper, AuthorityIds authorityIds) throws IOException {
+        String username = "";
+        String password = "";
+        boolean enabled = false;
+        boolean accountNonExpired = false;
+        boolean credentialsNonExpired = false;
+        boolean accountNonLocked = false;
+        Collection<? extends GrantedAuthority> authorities = null;
+        for (JsonToken token = jp.getCurrentToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            jp.nextToken();
+            switch (fieldName) {
+                case "username":
+                    username = DeserializerSupport.readText(jp);
+                    break;
+                case "password":
+                    password = DeserializerSupport.readText(jp);
+                    break;
+                case "enabled":
+                    enabled = DeserializerSupport.readBoolean(jp);
+                    break;
+                case "accountNonExpired":
+                    accountNonExpired = DeserializerSupport.readBoolean(jp);
+                    break;
+                case "credentialsNonExpired":
+                    credentialsNonExpired = DeserializerSupport.readBoolean(jp);
+                    break;
+                case "accountNonLocked":
+                    accountNonLocked = DeserializerSupport.readBoolean(jp);
+                    break;
+                case "authorities":
+                    authorities = readAuthorities(jp, mapper, authorityIds);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
+        }
+        return new User(username, password, enabled, accountNonExpired, credentialsNonExpired, accountNonLocked, authorities);
     }
 
-    private JsonNode readJsonNode(JsonNode jsonNode, String field) {
-        return jsonNode.has(field) ? jsonNode.get(field) : MissingNode.getInstance();
+    private static Collection<? extends GrantedAuthority> readAuthorities(JsonParser jp, ObjectMapper mapper, AuthorityIds authorityIds) throws IOException {
+        try {
+            return DeserializerSupport.readAuthorities(jp, mapper, new TypeReference<Set<SimpleGrantedAuthority>>() {
+            }, authorityIds);
+        } catch (AuthorityIdsMismatchException e) {
+            throw e;
+        } catch (JsonMappingException e) {
+            // Authorities that are not a typed collection were rejected with IllegalArgumentException by convertValue
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
     }
 }
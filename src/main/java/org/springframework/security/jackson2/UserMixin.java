@@ -16,8 +16,13 @@
 
 package org.springframework.security.jackson2;
 
+import au.gov.dto.springframework.security.web.context.GrantedAuthoritiesSerializer;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Collection;
 
 /**
  * This mixin class helps in serialize/deserialize {@link org.springframework.security.core.userdetails.User}.
@@ -39,4 +44,6 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, include = JsonTypeInfo.As.PROPERTY, property = "@class")
 @JsonDeserialize(using = UserDeserializer.class)
 public abstract class UserMixin {
+    @JsonSerialize(using = GrantedAuthoritiesSerializer.class)
+    abstract Collection<GrantedAuthority> getAuthorities();
 }
@@ -16,20 +16,28 @@
 
 package org.springframework.security.jackson2;
 
+import au.gov.dto.springframework.security.web.context.AuthorityIds;
+import au.gov.dto.springframework.security.web.context.PrincipalTypeResolver;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.util.Assert;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Custom deserializer for {@link UsernamePasswordAuthenticationToken}. At the time of deserialization
@@ -44,6 +52,37 @@ import java.util.List;
  * @see UsernamePasswordAuthenticationTokenMixin
  */
 public class UsernamePasswordAuthenticationTokenDeserializer extends JsonDeserializer<UsernamePasswordAuthenticationToken> {
+    private static final PrincipalTypeResolver PERMISSIVE_PRINCIPAL_TYPE_RESOLVER = PrincipalTypeResolver.permissive();
+
+    private final Supplier<? extends PrincipalTypeResolver> principalTypeResolver;
+    private final Supplier<? extends AuthorityIds> authorityIds;
+
+    /**
+     * Creates a deserializer that loads any principal type named in the token.
+     */
+    public UsernamePasswordAuthenticationTokenDeserializer() {
+        this(PERMISSIVE_PRINCIPAL_TYPE_RESOLVER);
+    }
+
+    /**
+     * Creates a deserializer that only reads principal types resolved by the given resolver.
+     */
+    public UsernamePasswordAuthenticationTokenDeserializer(PrincipalTypeResolver principalTypeResolver) {
+        this(() -> principalTypeResolver, () -> null);
+        Assert.notNull(principalTypeResolver);
+    }
+
+    /**
+     * Creates a deserializer that only reads principal types resolved by the supplied resolver, and resolves authorities
+     * written as ids with the supplied {@link AuthorityIds}. Both are supplied again for every token, so that they can be
+     * changed after Jackson has created and cached the deserializer.
+     */
+    public UsernamePasswordAuthenticationTokenDeserializer(Supplier<? extends PrincipalTypeResolver> principalTypeResolver, Supplier<? extends AuthorityIds> authorityIds) {
+        Assert.notNull(principalTypeResolver);
+        Assert.notNull(authorityIds);
+        this.principalTypeResolver = principalTypeResolver;
+        this.authorityIds = authorityIds;
+    }
 
     /**
      * This method construct {@link UsernamePasswordAuthenticationToken} object from serialized json.
@@ -52,37 +91,86 @@ public class UsernamePasswordAuthenticationTokenDeserializer extends JsonDeseria
     public UsernamePasswordAuthenticationToken deserialize(JsonParser jsonParser, DeserializationContext context) throws IOException, JsonProcessingException {
         UsernamePasswordAuthenticationToken token;
         ObjectMapper mapper = (ObjectMapper) jsonParser.getCodec();
-        JsonNode jsonNode = mapper.readTree(jsonParser);
-        Boolean authenticated = readJsonNode(jsonNode, "authenticated").asBoolean();
-        JsonNode principalNode = readJsonNode(jsonNode, "principal");
-        Object principal;
-        if (principalNode.isObject()) {
-            Class principalClass = LinkedHashMap.class;
-            if (principalNode.hasNonNull("@class")) {
-                try {
-                    principalClass = Class.forName(principalNode.get("@class").asText());
-                } catch (ClassNotFoundException e) {
-                    throw new RuntimeException("Could not load principal class [" + principalNode.get("@class").asText() + "]", e);
-                }
+        boolean authenticated = false;
+        Object principal = "";
+        Object credentials = "";
+        Collection<? extends GrantedAuthority> authorities = null;
+        JsonNode details = MissingNode.getInstance();
+        PrincipalTypeResolver resolver = principalTypeResolver.get();
+        AuthorityIds ids = authorityIds.get();
+        for (JsonToken jsonToken = DeserializerSupport.startObject(jsonParser); jsonToken == JsonToken.FIELD_NAME; jsonToken = jsonParser.nextToken()) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            switch (fieldName) {
+                case "authenticated":
+                    authenticated = DeserializerSupport.readBoolean(jsonParser);
+                    break;
+                case "principal":
+                    principal = readPrincipal(jsonParser, mapper, resolver, ids);
+                    break;
+                case "credentials":
+                    credentials = DeserializerSupport.readText(jsonParser);
+                    break;
+                case "authorities":
+                    authorities = DeserializerSupport.readAuthorities(jsonParser, mapper, new TypeReference<List<GrantedAuthority>>() {
+                    }, ids);
+                    break;
+                case "details":
+                    details = mapper.readTree(jsonParser);
+                    break;
+                default:
+                    jsonParser.skipChildren();
             }
-            principal = mapper.readValue(principalNode.toString(), principalClass);
-        } else {
-            principal = principalNode.asText();
         }
-        Object credentials = readJsonNode(jsonNode, "credentials").asText();
-        List<GrantedAuthority> authorities = mapper.readValue(
-                readJsonNode(jsonNode, "authorities").toString(), new TypeReference<List<GrantedAuthority>>() {
-                });
         if (authenticated) {
             token = new UsernamePasswordAuthenticationToken(principal, credentials, authorities);
         } else {
             token = new UsernamePasswordAuthenticationToken(principal, credentials);
         }
-        token.setDetails(readJsonNode(jsonNode, "details"));
+        token.setDetails(details);
         return token;
     }
 
-    private JsonNode readJsonNode(JsonNode jsonNode, String field) {
-        return jsonNode.has(field) ? jsonNode.get(field) : MissingNode.getInstance();
+    /**
+     * Reads a principal object in a single pass when its type id comes first, as written by the serializer. A
+     * {@link User} is read directly; other types are buffered and bound by the mapper.
+     */
+    private Object readPrincipal(JsonParser jsonParser, ObjectMapper mapper, PrincipalTypeResolver resolver, AuthorityIds ids) throws IOException {
+        if (jsonParser.getCurrentToken() != JsonToken.START_OBJECT) {
+            return DeserializerSupport.readText(jsonParser);
+        }
+        JsonToken jsonToken = jsonParser.nextToken();
+        if (jsonToken != JsonToken.FIELD_NAME || !DeserializerSupport.CLASS_FIELD.equals(jsonParser.getCurrentName())) {
+            return readUntypedPrincipal(jsonParser, mapper, resolver);
+        }
+        jsonParser.nextToken();
+        if (jsonParser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            jsonParser.nextToken();
+            return mapper.readValue(DeserializerSupport.bufferObject(jsonParser, mapper, null), LinkedHashMap.class);
+        }
+        String className = jsonParser.getText();
+        Class<?> principalClass = resolvePrincipalClass(resolver, className);
+        jsonParser.nextToken();
+        if (principalClass == User.class) {
+            return UserDeserializer.readUser(jsonParser, mapper, ids);
+        }
+        return mapper.readValue(DeserializerSupport.bufferObject(jsonParser, mapper, className), principalClass);
+    }
+
+    private Object readUntypedPrincipal(JsonParser jsonParser, ObjectMapper mapper, PrincipalTypeResolver resolver) throws IOException {
+        JsonNode principalNode = mapper.readTree(DeserializerSupport.bufferObject(jsonParser, mapper, null));
+        Class<?> principalClass = LinkedHashMap.class;
+        if (principalNode.hasNonNull("@class")) {
+            principalClass = resolvePrincipalClass(resolver, principalNode.get("@class").asText());
+        }
+        return mapper.readValue(mapper.treeAsTokens(principalNode), principalClass);
+    }
+
+    private Class<?> resolvePrincipalClass(PrincipalTypeResolver resolver, String className) throws JsonMappingException {
+        Class<?> principalClass = resolver.resolve(className);
+        if (principalClass == null) {
+            throw new JsonMappingException("Principal class [" + className + "] is not allowed");
+        }
+        return principalClass;
     }
 }
@@ -16,8 +16,13 @@
 
 package org.springframework.security.jackson2;
 
+import au.gov.dto.springframework.security.web.context.GrantedAuthoritiesSerializer;
 import com.fasterxml.jackson.annotation.*;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Collection;
 
 /**
  * This mixin class is used to serialize / deserialize
@@ -43,4 +48,6 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, include = JsonTypeInfo.As.PROPERTY, property = "@class")
 @JsonDeserialize(using = UsernamePasswordAuthenticationTokenDeserializer.class)
 public abstract class UsernamePasswordAuthenticationTokenMixin {
+    @JsonSerialize(using = GrantedAuthoritiesSerializer.class)
+    abstract Collection<GrantedAuthority> getAuthorities();
 }
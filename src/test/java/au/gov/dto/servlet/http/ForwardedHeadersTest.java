@@ -0,0 +1,85 @@
+package au.gov.dto.servlet.http;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ForwardedHeadersTest {
+    private final IpAddressRangeMatcher trustedProxies = new IpAddressRangeMatcher(Arrays.asList("10.0.0.0/8", "fd00::/8"));
+
+    @Test
+    public void parsesForwardedHeader() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Forwarded", "for=203.0.113.7;proto=https;host=\"www.example.com:8443\"");
+
+        ForwardedHeaders forwardedHeaders = ForwardedHeaders.parse(request, trustedProxies);
+
+        assertThat(forwardedHeaders.getScheme(), equalTo("https"));
+        assertThat(forwardedHeaders.getHost(), equalTo("www.example.com"));
+        assertThat(forwardedHeaders.getPort(), equalTo(8443));
+        assertThat(forwardedHeaders.isSecure(), equalTo(true));
+    }
+
+    @Test
+    public void usesForwardedEntryOfClosestUntrustedHop() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Forwarded", "for=198.51.100.1;proto=http;host=spoofed.example, for=203.0.113.7;proto=https;host=www.example.com");
+        request.addHeader("Forwarded", "for=\"[fd00::1]:4711\";proto=http;host=internal");
+
+        ForwardedHeaders forwardedHeaders = ForwardedHeaders.parse(request, trustedProxies);
+
+        assertThat(forwardedHeaders.getScheme(), equalTo("https"));
+        assertThat(forwardedHeaders.getHost(), equalTo("www.example.com"));
+        assertThat(forwardedHeaders.getPort(), equalTo(443));
+    }
+
+    @Test
+    public void parsesMultiHopXForwardedHeaders() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("X-Forwarded-For", "198.51.100.1, 203.0.113.7, 10.0.0.2");
+        request.addHeader("X-Forwarded-Proto", "http, https, http");
+        request.addHeader("X-Forwarded-Host", "www.example.com");
+
+        ForwardedHeaders forwardedHeaders = ForwardedHeaders.parse(request, trustedProxies);
+
+        assertThat(forwardedHeaders.getScheme(), equalTo("https"));
+        assertThat(forwardedHeaders.getHost(), equalTo("www.example.com"));
+        assertThat(forwardedHeaders.getPort(), equalTo(443));
+    }
+
+    @Test
+    public void fillsInMissingPartsFromRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setServerName("server.example.com");
+        request.addHeader("X-Forwarded-Proto", "HTTPS");
+        request.addHeader("X-Forwarded-Port", "8443");
+
+        ForwardedHeaders forwardedHeaders = ForwardedHeaders.parse(request, trustedProxies);
+
+        assertThat(forwardedHeaders.getScheme(), equalTo("https"));
+        assertThat(forwardedHeaders.getHost(), equalTo("server.example.com"));
+        assertThat(forwardedHeaders.getPort(), equalTo(8443));
+    }
+
+    @Test
+    public void returnsNullWithoutForwardedHeaders() throws Exception {
+        assertThat(ForwardedHeaders.parse(new MockHttpServletRequest(), trustedProxies), nullValue());
+    }
+
+    @Test
+    public void isSecureFallsBackToRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSecure(true);
+
+        assertThat(ForwardedHeaders.isSecure(request), equalTo(true));
+
+        request.setAttribute(ForwardedHeaders.REQUEST_ATTRIBUTE_NAME, new ForwardedHeaders("http", "example.com", 80));
+
+        assertThat(ForwardedHeaders.isSecure(request), equalTo(false));
+    }
+}
@@ -4,7 +4,10 @@ import org.junit.Test;
 import org.springframework.mock.web.MockHttpSession;
 
 import javax.servlet.http.HttpSessionEvent;
+import java.util.Map;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
@@ -27,4 +30,85 @@ public class HttpSessionCreatedListenerTest {
 
         assertThat(httpSession.isInvalid(), equalTo(true));
     }
+
+    @Test
+    public void sessionsFromSameCallSiteAreCountedTogether() throws Exception {
+        HttpSessionCreatedListener listener = new HttpSessionCreatedListener();
+        listener.setSampleInterval(1);
+
+        for (int i = 0; i < 3; i++) {
+            createSessionFromFirstCallSite(listener);
+        }
+
+        assertThat(listener.getSessionCreatedCount(), equalTo(3L));
+        assertThat(listener.getCallSiteCounts().values(), contains(3L));
+    }
+
+    @Test
+    public void sessionsFromDifferentCallSitesAreCountedSeparately() throws Exception {
+        HttpSessionCreatedListener listener = new HttpSessionCreatedListener();
+        listener.setSampleInterval(1);
+
+        createSessionFromFirstCallSite(listener);
+        for (int i = 0; i < 2; i++) {
+            createSessionFromSecondCallSite(listener);
+        }
+
+        Map<String, Long> callSiteCounts = listener.getCallSiteCounts();
+        assertThat(callSiteCounts.values(), containsInAnyOrder(1L, 2L));
+    }
+
+    @Test
+    public void sessionsFromCallSitesBeyondMaximumAreOnlyCountedInTotal() throws Exception {
+        HttpSessionCreatedListener listener = new HttpSessionCreatedListener();
+        listener.setSampleInterval(1);
+        listener.setMaxCallSites(1);
+
+        createSessionFromFirstCallSite(listener);
+        createSessionFromSecondCallSite(listener);
+
+        assertThat(listener.getSessionCreatedCount(), equalTo(2L));
+        assertThat(listener.getCallSiteCounts().values(), contains(1L));
+    }
+
+    @Test
+    public void onlySampledSessionsHaveTheirCallSiteRecorded() throws Exception {
+        HttpSessionCreatedListener listener = new HttpSessionCreatedListener();
+        listener.setSampleInterval(2);
+        MockHttpSession httpSession = null;
+
+        for (int i = 0; i < 4; i++) {
+            httpSession = new MockHttpSession();
+            createSessionFromFirstCallSite(listener, httpSession);
+        }
+
+        assertThat(listener.getSessionCreatedCount(), equalTo(4L));
+        assertThat(listener.getCallSiteCounts().values(), contains(2L));
+        assertThat(httpSession.isInvalid(), equalTo(true));
+    }
+
+    @Test
+    public void everySessionHasItsCallSiteRecordedByDefault() throws Exception {
+        HttpSessionCreatedListener listener = new HttpSessionCreatedListener();
+
+        createSessionFromFirstCallSite(listener);
+        for (int i = 0; i < 3; i++) {
+            createSessionFromSecondCallSite(listener);
+        }
+
+        assertThat(listener.getSessionCreatedCount(), equalTo(4L));
+        assertThat(listener.getCallSiteCounts().values(), containsInAnyOrder(1L, 3L));
+    }
+
+    private static void createSessionFromFirstCallSite(HttpSessionCreatedListener listener) {
+        createSessionFromFirstCallSite(listener, new MockHttpSession());
+    }
+
+    private static void createSessionFromFirstCallSite(HttpSessionCreatedListener listener, MockHttpSession httpSession) {
+        listener.sessionCreated(new HttpSessionEvent(httpSession));
+    }
+
+    private static void createSessionFromSecondCallSite(HttpSessionCreatedListener listener) {
+        listener.sessionCreated(new HttpSessionEvent(new MockHttpSession()));
+    }
 }
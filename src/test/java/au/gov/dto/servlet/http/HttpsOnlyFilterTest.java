@@ -5,6 +5,8 @@ import org.springframework.mock.web.MockFilterChain;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 
+import java.util.Collections;
+
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
@@ -67,4 +69,91 @@ public class HttpsOnlyFilterTest {
         assertThat(filterChain.getRequest(), equalTo(request));
         assertThat(filterChain.getResponse(), equalTo(response));
     }
+
+    @Test
+    public void testGetRedirectUrlUsesCanonicalHost() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/path");
+        request.setServerName("attacker.example");
+        request.setQueryString("a=b");
+        HttpsOnlyFilter filter = new HttpsOnlyFilter();
+        filter.setCanonicalHost("www.example.com");
+
+        assertThat(filter.getRedirectUrl(request), equalTo("https://www.example.com/path?a=b"));
+    }
+
+    @Test
+    public void testPermanentRedirectIsCacheable() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/path");
+        request.setServerName("somehost.com");
+        request.addHeader("X-Forwarded-Proto", "http");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpsOnlyFilter filter = new HttpsOnlyFilter();
+        filter.setRedirectStatus(308);
+        filter.setPermanentRedirectMaxAgeSeconds(3600);
+
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertThat(response.getStatus(), equalTo(308));
+        assertThat(response.getHeader("Location"), equalTo("https://somehost.com/path"));
+        assertThat(response.getHeader("Cache-Control"), equalTo("max-age=3600"));
+    }
+
+    @Test
+    public void testStrictTransportSecurityHeaderSentOnHttpsResponses() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/path");
+        request.addHeader("X-Forwarded-Proto", "https");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpsOnlyFilter filter = new HttpsOnlyFilter();
+        filter.setStrictTransportSecurityMaxAgeSeconds(31536000);
+        filter.setStrictTransportSecurityIncludeSubDomains(true);
+        filter.setStrictTransportSecurityPreload(true);
+
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertThat(response.getHeader("Strict-Transport-Security"), equalTo("max-age=31536000; includeSubDomains; preload"));
+    }
+
+    @Test
+    public void testStrictTransportSecurityHeaderNotSentOnHttpResponses() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/path");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpsOnlyFilter filter = new HttpsOnlyFilter();
+        filter.setStrictTransportSecurityMaxAgeSeconds(31536000);
+
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertThat(response.getHeader("Strict-Transport-Security"), nullValue());
+    }
+
+    @Test
+    public void testForwardedHeaderFromTrustedProxyIsHonoured() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/path");
+        request.setRemoteAddr("10.1.2.3");
+        request.addHeader("Forwarded", "for=203.0.113.7;proto=http;host=www.example.com");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpsOnlyFilter filter = new HttpsOnlyFilter();
+        filter.setTrustedProxies(Collections.singletonList("10.0.0.0/8"));
+
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertThat(response.getRedirectedUrl(), equalTo("https://www.example.com/path"));
+        assertThat(ForwardedHeaders.get(request).getScheme(), equalTo("http"));
+    }
+
+    @Test
+    public void testForwardedHeadersFromUntrustedClientAreIgnored() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/path");
+        request.setRemoteAddr("203.0.113.7");
+        request.addHeader("X-Forwarded-Proto", "http");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain filterChain = new MockFilterChain();
+        HttpsOnlyFilter filter = new HttpsOnlyFilter();
+        filter.setTrustedProxies(Collections.singletonList("10.0.0.0/8"));
+
+        filter.doFilter(request, response, filterChain);
+
+        assertThat(response.getRedirectedUrl(), nullValue());
+        assertThat(filterChain.getRequest(), equalTo((Object) request));
+        assertThat(ForwardedHeaders.get(request), nullValue());
+    }
 }
@@ -0,0 +1,73 @@
+package au.gov.dto.servlet.http;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpAddressRangeMatcherTest {
+    private final IpAddressRangeMatcher matcher = new IpAddressRangeMatcher(Arrays.asList("10.0.0.0/8", "192.168.1.1", "2001:db8::/32", "::1"));
+
+    @Test
+    public void matchesIpv4Ranges() throws Exception {
+        assertTrue(matcher.matches("10.0.0.1"));
+        assertTrue(matcher.matches("10.255.255.255"));
+        assertTrue(matcher.matches("192.168.1.1"));
+        assertFalse(matcher.matches("11.0.0.1"));
+        assertFalse(matcher.matches("192.168.1.2"));
+    }
+
+    @Test
+    public void matchesIpv6Ranges() throws Exception {
+        assertTrue(matcher.matches("2001:db8::1"));
+        assertTrue(matcher.matches("2001:0DB8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertTrue(matcher.matches("::1"));
+        assertTrue(matcher.matches("0:0:0:0:0:0:0:1"));
+        assertTrue(matcher.matches("[::1]"));
+        assertFalse(matcher.matches("fe80::1%eth0"));
+        assertFalse(matcher.matches("2001:db9::1"));
+        assertFalse(matcher.matches("::2"));
+    }
+
+    @Test
+    public void matchesIpv4MappedIpv6AddressesAgainstIpv4Ranges() throws Exception {
+        assertTrue(matcher.matches("::ffff:10.1.2.3"));
+        assertTrue(matcher.matches("::ffff:a01:203"));
+        assertFalse(matcher.matches("::ffff:11.1.2.3"));
+    }
+
+    @Test
+    public void doesNotMatchInvalidAddresses() throws Exception {
+        assertFalse(matcher.matches(null));
+        assertFalse(matcher.matches(""));
+        assertFalse(matcher.matches("unknown"));
+        assertFalse(matcher.matches("10.0.0"));
+        assertFalse(matcher.matches("10.0.0.256"));
+        assertFalse(matcher.matches("10.0.0.1.2"));
+        assertFalse(matcher.matches("2001:db8::1::2"));
+        assertFalse(matcher.matches("2001:db8:1:2:3:4:5:6:7"));
+        assertFalse(matcher.matches("2001:db8:"));
+        assertFalse(matcher.matches("12345::"));
+    }
+
+    @Test
+    public void zeroPrefixMatchesEverything() throws Exception {
+        IpAddressRangeMatcher anyMatcher = new IpAddressRangeMatcher(Arrays.asList("0.0.0.0/0", "::/0"));
+
+        assertTrue(anyMatcher.matches("203.0.113.7"));
+        assertTrue(anyMatcher.matches("2001:db8::7"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPrefixLength() throws Exception {
+        new IpAddressRangeMatcher(Collections.singletonList("10.0.0.0/33"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidAddress() throws Exception {
+        new IpAddressRangeMatcher(Collections.singletonList("10.0.0/8"));
+    }
+}
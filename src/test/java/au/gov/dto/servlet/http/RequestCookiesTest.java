@@ -0,0 +1,63 @@
+package au.gov.dto.servlet.http;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import javax.servlet.http.Cookie;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class RequestCookiesTest {
+    @Test
+    public void requestWithoutCookiesHasEmptyIndex() throws Exception {
+        RequestCookies requestCookies = RequestCookies.of(new MockHttpServletRequest());
+
+        assertThat(requestCookies.isEmpty(), equalTo(true));
+        assertThat(requestCookies.getValue("name"), nullValue());
+    }
+
+    @Test
+    public void firstCookieWithNameWins() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie("name", "first"), new Cookie("other", "value"), new Cookie("name", "second"));
+
+        RequestCookies requestCookies = RequestCookies.of(request);
+
+        assertThat(requestCookies.getValue("name"), equalTo("first"));
+        assertThat(requestCookies.getValue("other"), equalTo("value"));
+        assertThat(requestCookies.contains("missing"), equalTo(false));
+    }
+
+    @Test
+    public void namesOfAllCookiesAreAvailable() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie("name", "first"), new Cookie("other", "value"), new Cookie("name", "second"));
+
+        assertThat(RequestCookies.of(request).getNames(), containsInAnyOrder("name", "other"));
+    }
+
+    @Test
+    public void indexIsSharedForRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie("name", "value"));
+
+        assertThat(RequestCookies.of(request), sameInstance(RequestCookies.of(request)));
+    }
+
+    @Test
+    public void indexIsRebuiltWhenCookiesChange() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie("name", "value"));
+        RequestCookies requestCookies = RequestCookies.of(request);
+
+        request.setCookies(new Cookie("name", "changed"));
+
+        assertThat(RequestCookies.of(request), not(sameInstance(requestCookies)));
+        assertThat(RequestCookies.of(request).getValue("name"), equalTo("changed"));
+    }
+}
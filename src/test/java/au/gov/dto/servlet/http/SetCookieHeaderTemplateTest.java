@@ -0,0 +1,61 @@
+package au.gov.dto.servlet.http;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+public class SetCookieHeaderTemplateTest {
+    @Test
+    public void writesAllAttributes() throws Exception {
+        SetCookieHeaderTemplate template = new SetCookieHeaderTemplate("/app", 3600, true, "lax");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        template.addCookie(response, "name", "value", true);
+
+        assertThat(response.getHeaders("Set-Cookie"), contains("name=value; Path=/app; Max-Age=3600; Secure; HttpOnly; SameSite=Lax"));
+    }
+
+    @Test
+    public void omitsUnsetAttributes() throws Exception {
+        SetCookieHeaderTemplate template = new SetCookieHeaderTemplate(null, -1, false, null);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        template.addCookie(response, "name", "value", false);
+
+        assertThat(response.getHeaders("Set-Cookie"), contains("name=value"));
+    }
+
+    @Test
+    public void writesExpiredCookie() throws Exception {
+        SetCookieHeaderTemplate template = new SetCookieHeaderTemplate("/", 3600, true, "Strict");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        template.addExpiredCookie(response, "name", false);
+
+        assertThat(response.getHeaders("Set-Cookie"), contains("name=; Path=/; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT; HttpOnly; SameSite=Strict"));
+    }
+
+    @Test
+    public void writesSameSiteNoneCookieAsSecureOnInsecureRequest() throws Exception {
+        SetCookieHeaderTemplate template = new SetCookieHeaderTemplate("/", -1, true, "none");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        template.addCookie(response, "name", "value", false);
+        template.addExpiredCookie(response, "name", false);
+
+        assertThat(response.getHeaders("Set-Cookie"), contains("name=value; Path=/; Secure; HttpOnly; SameSite=None",
+                "name=; Path=/; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT; Secure; HttpOnly; SameSite=None"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownSameSiteValue() throws Exception {
+        new SetCookieHeaderTemplate(null, -1, true, "Sometimes");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPathWithSemicolon() throws Exception {
+        new SetCookieHeaderTemplate("/app; Domain=example.com", -1, true, null);
+    }
+}
@@ -1,5 +1,6 @@
 package au.gov.dto.springframework.security.web.context;
 
+import au.gov.dto.springframework.security.web.util.matcher.PathPrefixRequestMatcher;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
@@ -17,10 +18,16 @@ import java.util.Collections;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class CookieSecurityContextRepositoryTest {
     private static final String AUTHENTICATION_COOKIE_NAME = "authentication";
     private static final int AUTHENTICATION_COOKIE_MAX_AGE_SECONDS = 3600;
+    private static final String EXPIRED_AUTH_TOKEN = "eyJjdHkiOiJKV1QiLCJlbmMiOiJBMjU2R0NNIiwiYWxnIjoiZGlyIn0..v3OyQykgTQI5U7gP.dKsmMKX1MHGoMx2rXrCCWOCbyax-J8JS6gu63OBXEDm7Ab926OwlwlZcvoOZGW5nO7ZR95h2pe8pQs8s8cqWJUO4L4dGI9jTj4jK_Lsy9cPWDY4BMzs2bVBuasn88OQYjC-3zuZyvPKfQHrSVS9OjTaMLeMBwMfKP-k3IysOUfUtWUNcRb86v7VCnOd0ATljXUN8DekK8iZ0wD5AtBJVaOQLbaNWiXGY2pnA2eOW9cI_vPbCqqn4ZW-r7sEy6UzHgXYgRAr4bKb7abVtRvO1Xg3CcpquE597Om0bKJIk-VVCz7fVzpz5rkp16vzN-RKBJBs2MK-UsXKD9Lkgedh5w--Q4muiWrAqA5_Tx36mvkESlzR5pbsKu84ZweE5dfen47q_BWaZguVb8jFJB1pofpEgNiZ1C1K8aKIO03CIR-cOOfvoPrsdte-0M4F5bq4KwLna8fYm9D3OeJN3sai3Ba2KKPtLsfz-F5jJlCOV44JE-F9Pqa1xfdpD_S5UenWFi9IUsM912BoCTX4ouEMP6ZUVHwKgTeFjInJXe6iJVqvhPfrWUeVUBmBURy_8XGrzW12GqN_Qp_-275gQ_jlQfyMsdtkLdMp9YxpIbPb4Whq0ey5eKvy924Z4aWKQcw6SrVPAhFjXbvtwGVJYv2lzQ2vQIDE9g1dxqPpRvAG_qb_4M3Xfhtjo2W1Md-U1Oo5cfDsrbqeeegeYDH_AA5t5tJxLDB7TtR8xtjFb52WNItxcKeMnb6jegAwWlEjAkAqY.1d7Z0BNKOegXeUI_fY8yQg";
 
     @Test
     public void containsContextReturnsTrueIfAuthenticationCookieExists() throws Exception {
@@ -151,6 +158,494 @@ public class CookieSecurityContextRepositoryTest {
         assertTrue(authenticationCookie.isHttpOnly());
     }
 
+    @Test
+    public void skipSavingUnchangedSecurityContextIfSaveOnlyIfChangedEnabled() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setSaveOnlyIfChanged(true);
+        UserDetails userDetails = new User("username", "password", Collections.emptyList());
+        Authentication authentication = new UsernamePasswordAuthenticationToken(userDetails, null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME), nullValue());
+        assertThat(repository.getSkippedSaveCount(), equalTo(1L));
+    }
+
+    @Test
+    public void saveSecurityContextChangedInPlaceIfSaveOnlyIfChangedEnabled() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setSaveOnlyIfChanged(true);
+        UserDetails userDetails = new User("username", "password", Collections.emptyList());
+        Authentication authentication = new UsernamePasswordAuthenticationToken(userDetails, null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        securityContext.getAuthentication().setAuthenticated(false);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        Cookie cookie = response.getCookie(AUTHENTICATION_COOKIE_NAME);
+        assertThat(cookie, notNullValue());
+        assertThat(authenticationSerializer.deserialize(tokenEncryption.decryptAndVerify(cookie.getValue())).isAuthenticated(), equalTo(false));
+        assertThat(repository.getSkippedSaveCount(), equalTo(0L));
+    }
+
+    @Test
+    public void saveChangedSecurityContextIfSaveOnlyIfChangedEnabled() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        repository.setSaveOnlyIfChanged(true);
+        UserDetails userDetails = new User("username", "password", Collections.emptyList());
+        Authentication authentication = new UsernamePasswordAuthenticationToken(userDetails, null, Collections.emptyList());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        securityContext.setAuthentication(authentication);
+
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        Cookie authenticationCookie = response.getCookie(AUTHENTICATION_COOKIE_NAME);
+        assertThat(authenticationCookie.getValue().length(), greaterThan(0));
+        assertThat(repository.getSkippedSaveCount(), equalTo(0L));
+    }
+
+    @Test
+    public void skipSavingUnchangedSecurityContextIfTokenIsNotDueForRefresh() throws Exception {
+        JwtEncryption tokenEncryption = createJwtEncryption();
+        tokenEncryption.setRefreshThreshold(0.5);
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setSaveOnlyIfChanged(true);
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME), nullValue());
+    }
+
+    @Test
+    public void saveUnchangedSecurityContextIfTokenIsDueForRefresh() throws Exception {
+        JwtEncryption tokenEncryption = createJwtEncryption();
+        tokenEncryption.setRefreshThreshold(1.0);
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setSaveOnlyIfChanged(true);
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        Cookie authenticationCookie = response.getCookie(AUTHENTICATION_COOKIE_NAME);
+        assertThat(authenticationCookie.getValue().length(), greaterThan(0));
+        assertThat(repository.getSkippedSaveCount(), equalTo(0L));
+    }
+
+    @Test
+    public void returnsSeparateAuthenticationFromCacheForRepeatedAuthenticationCookie() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(10);
+        repository.setVerifiedTokenCache(verifiedTokenCache);
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+
+        SecurityContext firstSecurityContext = repository.loadContext(new HttpRequestResponseHolder(request, new MockHttpServletResponse()));
+        SecurityContext secondSecurityContext = repository.loadContext(new HttpRequestResponseHolder(request, new MockHttpServletResponse()));
+
+        assertThat(secondSecurityContext.getAuthentication(), equalTo(firstSecurityContext.getAuthentication()));
+        assertThat(secondSecurityContext.getAuthentication(), not(sameInstance(firstSecurityContext.getAuthentication())));
+        assertThat(verifiedTokenCache.getMissCount(), equalTo(1L));
+        assertThat(verifiedTokenCache.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void splitsLargeAuthenticationTokenAcrossSeveralCookies() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        Authentication previousAuthentication = new UsernamePasswordAuthenticationToken("previous", null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(previousAuthentication));
+        repository.setAuthenticationCookieChunkSize(100);
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+        securityContext.setAuthentication(authentication);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        repository.loadContext(requestResponseHolder);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME).getMaxAge(), equalTo(0));
+        Cookie firstChunk = response.getCookie(AUTHENTICATION_COOKIE_NAME + "_0");
+        assertThat(firstChunk.getValue().length(), equalTo(100));
+        assertThat(firstChunk.getMaxAge(), equalTo(AUTHENTICATION_COOKIE_MAX_AGE_SECONDS));
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME + "_1"), notNullValue());
+    }
+
+    @Test
+    public void reassemblesAuthenticationTokenFromSeveralCookies() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(
+                new Cookie("other", "value"),
+                new Cookie(AUTHENTICATION_COOKIE_NAME + "_1", payload.substring(100)),
+                new Cookie(AUTHENTICATION_COOKIE_NAME + "_0", payload.substring(0, 100)));
+
+        SecurityContext securityContext = repository.loadContext(new HttpRequestResponseHolder(request, new MockHttpServletResponse()));
+
+        assertTrue(repository.containsContext(request));
+        assertThat(securityContext.getAuthentication().getName(), equalTo("username"));
+    }
+
+    @Test
+    public void expireStaleAuthenticationCookieChunksOnSave() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+        securityContext.setAuthentication(authentication);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(
+                new Cookie(AUTHENTICATION_COOKIE_NAME + "_1", "stale"),
+                new Cookie(AUTHENTICATION_COOKIE_NAME + "_2", "stale"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        repository.loadContext(requestResponseHolder);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME).getValue().length(), greaterThan(0));
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME + "_1").getMaxAge(), equalTo(0));
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME + "_2").getMaxAge(), equalTo(0));
+    }
+
+    @Test
+    public void expireStaleAuthenticationCookieChunksOnLogout() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(
+                new Cookie(AUTHENTICATION_COOKIE_NAME + "_7", "stale"),
+                new Cookie(AUTHENTICATION_COOKIE_NAME + "_other", "unrelated"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        repository.loadContext(requestResponseHolder);
+        repository.saveContext(SecurityContextHolder.createEmptyContext(), requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME + "_7").getMaxAge(), equalTo(0));
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME + "_other"), nullValue());
+    }
+
+    @Test
+    public void expireAuthenticationCookiesIfTokenExceedsMaximumSize() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        repository.setAuthenticationCookieChunkSize(100);
+        repository.setMaxAuthenticationCookieBytes(200);
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+        securityContext.setAuthentication(authentication);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        repository.loadContext(requestResponseHolder);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME).getMaxAge(), equalTo(0));
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME + "_0"), nullValue());
+    }
+
+    @Test
+    public void lazySecurityContextDecryptsAuthenticationCookieOnFirstAccess() throws Exception {
+        JwtEncryption jwtEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        String payload = jwtEncryption.encryptAndSign(authenticationSerializer.serialize(
+                new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList())));
+        TokenEncryption tokenEncryption = spy(jwtEncryption);
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setLazyLoadContext(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+
+        SecurityContext securityContext = repository.loadContext(new HttpRequestResponseHolder(request, new MockHttpServletResponse()));
+
+        verify(tokenEncryption, never()).decryptAndVerifyToken(anyString());
+        assertThat(securityContext.getAuthentication().getName(), equalTo("username"));
+        assertThat(securityContext.getAuthentication().getName(), equalTo("username"));
+        verify(tokenEncryption, times(1)).decryptAndVerifyToken(payload);
+    }
+
+    @Test
+    public void skipSavingLazySecurityContextThatWasNotAccessed() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setLazyLoadContext(true);
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(
+                new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList())));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME), nullValue());
+        assertThat(repository.getSkippedSaveCount(), equalTo(1L));
+    }
+
+    @Test
+    public void expireAuthenticationCookieWhenLazySecurityContextHasExpiredAuthToken() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        repository.setLazyLoadContext(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, EXPIRED_AUTH_TOKEN));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+
+        assertThat(securityContext.getAuthentication(), nullValue());
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME), nullValue());
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME).getMaxAge(), equalTo(0));
+    }
+
+    @Test
+    public void lazySecurityContextKeepsThrowingForMalformedAuthenticationCookie() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        repository.setLazyLoadContext(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, "not-a-jwt"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+
+        RuntimeException firstFailure = getAuthenticationFailure(securityContext);
+        RuntimeException secondFailure = getAuthenticationFailure(securityContext);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(firstFailure, notNullValue());
+        assertThat(secondFailure, sameInstance(firstFailure));
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME), nullValue());
+    }
+
+    private RuntimeException getAuthenticationFailure(SecurityContext securityContext) {
+        try {
+            securityContext.getAuthentication();
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Test
+    public void ignoredRequestGetsEmptySecurityContextAndUnwrappedResponse() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setIgnoredRequestMatcher(new PathPrefixRequestMatcher(Collections.singletonList("/health")));
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/health");
+        request.setServletPath("/health");
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        securityContext.setAuthentication(authentication);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(requestResponseHolder.getResponse(), sameInstance((Object) response));
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME), nullValue());
+    }
+
+    @Test
+    public void recordMetricsForLoadedAndSavedSecurityContext() throws Exception {
+        HistogramSecurityContextMetrics metrics = new HistogramSecurityContextMetrics();
+        JwtEncryption tokenEncryption = createJwtEncryption();
+        tokenEncryption.setMetrics(metrics);
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer();
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setMetrics(metrics);
+        Authentication authentication = new UsernamePasswordAuthenticationToken(new User("username", "password", Collections.emptyList()), null, Collections.emptyList());
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(authentication));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.LOADED), equalTo(1L));
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.SAVED), equalTo(1L));
+        assertThat(metrics.getReadCookieSizes().getMax(), equalTo((long) payload.length()));
+        assertThat(metrics.getWrittenCookieSizes().getCount(), equalTo(1L));
+        assertThat(metrics.getLatency(SecurityContextMetrics.Phase.DECRYPT).getCount(), equalTo(1L));
+        assertThat(metrics.getLatency(SecurityContextMetrics.Phase.VERIFY).getCount(), equalTo(1L));
+        assertThat(metrics.getLatency(SecurityContextMetrics.Phase.DESERIALIZE).getCount(), equalTo(1L));
+        assertThat(metrics.getLatency(SecurityContextMetrics.Phase.SERIALIZE).getCount(), equalTo(1L));
+        assertThat(metrics.getLatency(SecurityContextMetrics.Phase.SIGN).getCount(), equalTo(2L));
+        assertThat(metrics.getLatency(SecurityContextMetrics.Phase.ENCRYPT).getCount(), equalTo(2L));
+    }
+
+    @Test
+    public void recordMetricsForMissingAndExpiredAuthenticationCookies() throws Exception {
+        HistogramSecurityContextMetrics metrics = new HistogramSecurityContextMetrics();
+        JwtEncryption tokenEncryption = createJwtEncryption();
+        tokenEncryption.setMetrics(metrics);
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, new JsonAuthenticationSerializer());
+        repository.setMetrics(metrics);
+        MockHttpServletRequest expiredRequest = new MockHttpServletRequest();
+        expiredRequest.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, EXPIRED_AUTH_TOKEN));
+
+        repository.loadContext(new HttpRequestResponseHolder(new MockHttpServletRequest(), new MockHttpServletResponse()));
+        repository.loadContext(new HttpRequestResponseHolder(expiredRequest, new MockHttpServletResponse()));
+
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.MISSING), equalTo(1L));
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.REJECTED), equalTo(1L));
+        assertThat(metrics.getRejectionCount(SecurityContextMetrics.Rejection.EXPIRED), equalTo(1L));
+        assertThat(metrics.getRejectionCount(SecurityContextMetrics.Rejection.CLAIMS_REJECTED), equalTo(0L));
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.LOADED), equalTo(0L));
+    }
+
+    @Test
+    public void recordMetricsForAuthenticationCookieThatDeserializesToNoAuthentication() throws Exception {
+        HistogramSecurityContextMetrics metrics = new HistogramSecurityContextMetrics();
+        JwtEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer() {
+            @Override
+            public Authentication deserialize(String serializedAuthentication) {
+                return null;
+            }
+        };
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setMetrics(metrics);
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(
+                new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList())));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+
+        SecurityContext securityContext = repository.loadContext(new HttpRequestResponseHolder(request, new MockHttpServletResponse()));
+
+        assertThat(securityContext.getAuthentication(), nullValue());
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.DISCARDED), equalTo(1L));
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.LOADED), equalTo(0L));
+    }
+
+    @Test
+    public void authenticationTokenIdIsKeptWhileSameAuthenticationIsReissued() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        Authentication authentication = new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList());
+        String firstCookie = saveAuthentication(repository, new MockHttpServletRequest(), authentication);
+        MockHttpServletRequest secondRequest = new MockHttpServletRequest();
+        secondRequest.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, firstCookie));
+        HttpRequestResponseHolder secondHolder = new HttpRequestResponseHolder(secondRequest, new MockHttpServletResponse());
+        SecurityContext secondSecurityContext = repository.loadContext(secondHolder);
+        Object firstTokenId = secondRequest.getAttribute(CookieSecurityContextRepository.AUTHENTICATION_TOKEN_ID_ATTRIBUTE_NAME);
+        repository.saveContext(secondSecurityContext, secondHolder.getRequest(), secondHolder.getResponse());
+        String secondCookie = ((MockHttpServletResponse) ((ServletResponseWrapper) secondHolder.getResponse()).getResponse()).getCookie(AUTHENTICATION_COOKIE_NAME).getValue();
+
+        MockHttpServletRequest reissuedRequest = new MockHttpServletRequest();
+        reissuedRequest.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, secondCookie));
+        repository.loadContext(new HttpRequestResponseHolder(reissuedRequest, new MockHttpServletResponse()));
+        MockHttpServletRequest newLoginRequest = new MockHttpServletRequest();
+        newLoginRequest.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, saveAuthentication(repository, new MockHttpServletRequest(), authentication)));
+        repository.loadContext(new HttpRequestResponseHolder(newLoginRequest, new MockHttpServletResponse()));
+
+        assertThat(firstTokenId, notNullValue());
+        assertThat(reissuedRequest.getAttribute(CookieSecurityContextRepository.AUTHENTICATION_TOKEN_ID_ATTRIBUTE_NAME), equalTo(firstTokenId));
+        assertThat(newLoginRequest.getAttribute(CookieSecurityContextRepository.AUTHENTICATION_TOKEN_ID_ATTRIBUTE_NAME), not(equalTo(firstTokenId)));
+    }
+
+    private String saveAuthentication(CookieSecurityContextRepository repository, MockHttpServletRequest request, Authentication authentication) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        securityContext.setAuthentication(authentication);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+        return response.getCookie(AUTHENTICATION_COOKIE_NAME).getValue();
+    }
+
+    @Test
+    public void expireAuthenticationCookieThatDeserializesToNoAuthenticationIfSaveOnlyIfChangedEnabled() throws Exception {
+        TokenEncryption tokenEncryption = createJwtEncryption();
+        AuthenticationSerializer authenticationSerializer = new JsonAuthenticationSerializer() {
+            @Override
+            public Authentication deserialize(String serializedAuthentication) {
+                return null;
+            }
+        };
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository(tokenEncryption, authenticationSerializer);
+        repository.setSaveOnlyIfChanged(true);
+        String payload = tokenEncryption.encryptAndSign(authenticationSerializer.serialize(
+                new UsernamePasswordAuthenticationToken("username", null, Collections.emptyList())));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(AUTHENTICATION_COOKIE_NAME, payload));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(securityContext.getAuthentication(), nullValue());
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME).getMaxAge(), equalTo(0));
+        assertThat(repository.getSkippedSaveCount(), equalTo(0L));
+    }
+
+    @Test
+    public void skipSavingEmptySecurityContextWithoutAuthenticationCookieIfSaveOnlyIfChangedEnabled() throws Exception {
+        CookieSecurityContextRepository repository = createCookieSecurityContextRepository();
+        repository.setSaveOnlyIfChanged(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        HttpRequestResponseHolder requestResponseHolder = new HttpRequestResponseHolder(request, response);
+        SecurityContext securityContext = repository.loadContext(requestResponseHolder);
+        repository.saveContext(securityContext, requestResponseHolder.getRequest(), requestResponseHolder.getResponse());
+
+        assertThat(response.getCookie(AUTHENTICATION_COOKIE_NAME), nullValue());
+        assertThat(repository.getSkippedSaveCount(), equalTo(1L));
+    }
+
     private JwtEncryption createJwtEncryption() {
         return new JwtEncryption("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=");
     }
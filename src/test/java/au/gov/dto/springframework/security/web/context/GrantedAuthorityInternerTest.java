@@ -0,0 +1,56 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GrantedAuthorityInternerTest {
+    @After
+    public void clearInterner() {
+        GrantedAuthorityInterner.clear();
+    }
+
+    @Test
+    public void internReturnsSameAuthorityForSameRole() {
+        SimpleGrantedAuthority first = GrantedAuthorityInterner.intern("ROLE_USER");
+        SimpleGrantedAuthority second = GrantedAuthorityInterner.intern(new String("ROLE_USER"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.getAuthority()).isEqualTo("ROLE_USER");
+    }
+
+    @Test
+    public void internReturnsSameListForSameRoles() {
+        List<GrantedAuthority> first = GrantedAuthorityInterner.intern(Arrays.asList("ROLE_USER", "ROLE_ADMIN"));
+        List<GrantedAuthority> second = GrantedAuthorityInterner.intern(Arrays.asList("ROLE_USER", "ROLE_ADMIN"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(first).containsExactly(new SimpleGrantedAuthority("ROLE_USER"), new SimpleGrantedAuthority("ROLE_ADMIN"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void internedListIsUnmodifiable() {
+        GrantedAuthorityInterner.intern(Collections.singletonList("ROLE_USER")).clear();
+    }
+
+    @Test
+    public void deserializedAuthenticationsShareAuthorityInstances() throws Exception {
+        AuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        String serializedAuthentication = serializer.serialize(new UsernamePasswordAuthenticationToken("username", null,
+                Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER"))));
+
+        Authentication first = serializer.deserialize(serializedAuthentication);
+        Authentication second = serializer.deserialize(serializedAuthentication);
+
+        assertThat(second.getAuthorities().iterator().next()).isSameAs(first.getAuthorities().iterator().next());
+    }
+}
@@ -0,0 +1,58 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class HistogramSecurityContextMetricsTest {
+    private final HistogramSecurityContextMetrics metrics = new HistogramSecurityContextMetrics();
+
+    @Test
+    public void valuesAreCountedInPowerOfTwoBuckets() throws Exception {
+        HistogramSecurityContextMetrics.Histogram histogram = metrics.getReadCookieSizes();
+
+        metrics.recordReadCookieSize(0);
+        metrics.recordReadCookieSize(1);
+        metrics.recordReadCookieSize(2);
+        metrics.recordReadCookieSize(3);
+        metrics.recordReadCookieSize(1000);
+
+        long[] bucketCounts = histogram.getBucketCounts();
+        assertThat(bucketCounts[0], equalTo(1L));
+        assertThat(bucketCounts[1], equalTo(1L));
+        assertThat(bucketCounts[2], equalTo(2L));
+        assertThat(bucketCounts[10], equalTo(1L));
+        assertThat(histogram.getCount(), equalTo(5L));
+        assertThat(histogram.getSum(), equalTo(1006L));
+        assertThat(histogram.getMax(), equalTo(1000L));
+    }
+
+    @Test
+    public void quantileUpperBoundIsTopOfBucketCappedAtMax() throws Exception {
+        for (int i = 0; i < 99; i++) {
+            metrics.recordLatency(SecurityContextMetrics.Phase.DECRYPT, 100);
+        }
+        metrics.recordLatency(SecurityContextMetrics.Phase.DECRYPT, 5000);
+        HistogramSecurityContextMetrics.Histogram histogram = metrics.getLatency(SecurityContextMetrics.Phase.DECRYPT);
+
+        assertThat(histogram.getQuantileUpperBound(0.5), equalTo(127L));
+        assertThat(histogram.getQuantileUpperBound(0.99), equalTo(127L));
+        assertThat(histogram.getQuantileUpperBound(1.0), equalTo(5000L));
+        assertThat(metrics.getLatency(SecurityContextMetrics.Phase.ENCRYPT).getQuantileUpperBound(0.5), equalTo(0L));
+    }
+
+    @Test
+    public void outcomesAreCountedSeparately() throws Exception {
+        metrics.recordOutcome(SecurityContextMetrics.Outcome.SAVED);
+        metrics.recordOutcome(SecurityContextMetrics.Outcome.SAVED);
+        metrics.recordOutcome(SecurityContextMetrics.Outcome.REJECTED);
+        metrics.recordRejection(SecurityContextMetrics.Rejection.BAD_SIGNATURE);
+
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.SAVED), equalTo(2L));
+        assertThat(metrics.getOutcomeCount(SecurityContextMetrics.Outcome.REJECTED), equalTo(1L));
+        assertThat(metrics.getOutcomeCounts().get(SecurityContextMetrics.Outcome.MISSING), equalTo(0L));
+        assertThat(metrics.getRejectionCount(SecurityContextMetrics.Rejection.BAD_SIGNATURE), equalTo(1L));
+        assertThat(metrics.getRejectionCounts().get(SecurityContextMetrics.Rejection.EXPIRED), equalTo(0L));
+    }
+}
@@ -1,5 +1,7 @@
 package au.gov.dto.springframework.security.web.context;
 
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -7,12 +9,20 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
+import org.springframework.security.jackson2.UsernamePasswordAuthenticationTokenMixin;
 import org.springframework.security.web.authentication.WebAuthenticationDetails;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class JsonAuthenticationSerializerTest {
@@ -31,4 +41,126 @@ public class JsonAuthenticationSerializerTest {
 
         assertThat(deserializedAuthentication.getClass(), equalTo(UsernamePasswordAuthenticationToken.class));
     }
+
+    @Test
+    public void serializeAndDeserializeAuthoritiesWithAuthorityDictionary() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        serializer.setAuthorityDictionary(new AuthorityDictionary(1, Arrays.asList("userRole1", "userRole2", "tokenRole1")));
+        UsernamePasswordAuthenticationToken authentication = createAuthentication();
+
+        String serializedAuthentication = serializer.serialize(authentication);
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(serializedAuthentication, not(containsString(SimpleGrantedAuthority.class.getName())));
+        assertThat(serializedAuthentication, containsString("\"authorities\":{\"@dictionary\":1,\"@authorities\":[2,\"tokenRole2\"]}"));
+        assertThat(serializedAuthentication.length(), lessThan(new JsonAuthenticationSerializer().serialize(authentication).length()));
+        User principal = (User) deserializedAuthentication.getPrincipal();
+        assertThat(principal.getAuthorities(), containsInAnyOrder(new SimpleGrantedAuthority("userRole1"), new SimpleGrantedAuthority("userRole2")));
+        assertThat(deserializedAuthentication.getAuthorities(), containsInAnyOrder(new SimpleGrantedAuthority("tokenRole1"), new SimpleGrantedAuthority("tokenRole2")));
+    }
+
+    @Test
+    public void deserializeAuthenticationSerializedWithoutAuthorityDictionary() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        serializer.setAuthorityDictionary(new AuthorityDictionary(1, Arrays.asList("userRole1", "userRole2")));
+        String serializedAuthentication = new JsonAuthenticationSerializer().serialize(createAuthentication());
+
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(deserializedAuthentication.getAuthorities(), containsInAnyOrder(new SimpleGrantedAuthority("tokenRole1"), new SimpleGrantedAuthority("tokenRole2")));
+    }
+
+    @Test
+    public void deserializeReturnsNullForAuthorityDictionaryVersionMismatch() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        serializer.setAuthorityDictionary(new AuthorityDictionary(1, Arrays.asList("userRole1", "userRole2")));
+        String serializedAuthentication = serializer.serialize(createAuthentication());
+        serializer.setAuthorityDictionary(new AuthorityDictionary(2, Arrays.asList("userRole2", "userRole1")));
+
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(deserializedAuthentication, nullValue());
+    }
+
+    @Test
+    public void deserializeReturnsNullForAuthenticationSerializedWithAuthorityDictionaryThatIsRemoved() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        serializer.setAuthorityDictionary(new AuthorityDictionary(1, Arrays.asList("userRole1", "userRole2")));
+        String serializedAuthentication = serializer.serialize(createAuthentication());
+        serializer.setAuthorityDictionary(null);
+
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(deserializedAuthentication, nullValue());
+    }
+
+    @Test
+    public void deserializeReturnsNullForUnknownAuthorityId() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        serializer.setAuthorityDictionary(new AuthorityDictionary(1, Arrays.asList("userRole1", "userRole2", "tokenRole1")));
+        String serializedAuthentication = serializer.serialize(createAuthentication());
+        serializer.setAuthorityDictionary(new AuthorityDictionary(1, Arrays.asList("userRole1", "userRole2")));
+
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(deserializedAuthentication, nullValue());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void deserializeRejectsPrincipalTypeThatIsNotAllowed() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        String serializedAuthentication = "{\"@class\":\"org.springframework.security.authentication.UsernamePasswordAuthenticationToken\","
+                + "\"principal\":{\"@class\":\"java.util.HashMap\"},\"credentials\":null,\"authenticated\":true,\"details\":null,"
+                + "\"authorities\":[\"java.util.ArrayList\",[]]}";
+
+        serializer.deserialize(serializedAuthentication);
+    }
+
+    @Test
+    public void deserializeReadsPrincipalTypeAllowedAfterFirstDeserialization() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        serializer.deserialize(serializer.serialize(createAuthentication()));
+        serializer.setAllowedPrincipalTypes(Collections.singletonList(HashMap.class));
+        String serializedAuthentication = "{\"@class\":\"org.springframework.security.authentication.UsernamePasswordAuthenticationToken\","
+                + "\"principal\":{\"@class\":\"java.util.HashMap\"},\"credentials\":null,\"authenticated\":true,\"details\":null,"
+                + "\"authorities\":[\"java.util.ArrayList\",[]]}";
+
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(deserializedAuthentication.getPrincipal().getClass(), equalTo(HashMap.class));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void replacementObjectMapperRejectsPrincipalTypeThatIsNotAllowed() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+        objectMapper.addMixInAnnotations(UsernamePasswordAuthenticationToken.class, UsernamePasswordAuthenticationTokenMixin.class);
+        serializer.setObjectMapper(objectMapper);
+        String serializedAuthentication = "{\"@class\":\"org.springframework.security.authentication.UsernamePasswordAuthenticationToken\","
+                + "\"principal\":{\"@class\":\"java.util.HashMap\"},\"credentials\":null,\"authenticated\":true,\"details\":null,"
+                + "\"authorities\":[\"java.util.ArrayList\",[]]}";
+
+        serializer.deserialize(serializedAuthentication);
+    }
+
+    @Test
+    public void replacementObjectMapperUsesAuthorityDictionary() throws Exception {
+        JsonAuthenticationSerializer serializer = new JsonAuthenticationSerializer();
+        serializer.setAuthorityDictionary(new AuthorityDictionary(1, Arrays.asList("userRole1", "userRole2", "tokenRole1")));
+        serializer.setObjectMapper(new ObjectMapper());
+
+        String serializedAuthentication = serializer.serialize(createAuthentication());
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(serializedAuthentication, containsString("\"authorities\":{\"@dictionary\":1,\"@authorities\":[2,\"tokenRole2\"]}"));
+        assertThat(deserializedAuthentication.getAuthorities(), containsInAnyOrder(new SimpleGrantedAuthority("tokenRole1"), new SimpleGrantedAuthority("tokenRole2")));
+    }
+
+    private UsernamePasswordAuthenticationToken createAuthentication() {
+        List<GrantedAuthority> userAuthorities = Arrays.asList(new SimpleGrantedAuthority("userRole1"), new SimpleGrantedAuthority("userRole2"));
+        User principal = new User("username", "password", userAuthorities);
+        List<GrantedAuthority> tokenAuthorities = Arrays.asList(new SimpleGrantedAuthority("tokenRole1"), new SimpleGrantedAuthority("tokenRole2"));
+        return new UsernamePasswordAuthenticationToken(principal, null, tokenAuthorities);
+    }
 }
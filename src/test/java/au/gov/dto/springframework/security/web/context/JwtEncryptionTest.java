@@ -0,0 +1,93 @@
+package au.gov.dto.springframework.security.web.context;
+
+import com.nimbusds.jose.CompressionAlgorithm;
+import com.nimbusds.jose.JWEObject;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JwtEncryptionTest {
+    private static final String KEY_BASE64 = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=";
+    private static final String TOKEN = "{\"principal\":\"username\"}";
+
+    @Test
+    public void decryptAndVerifyReturnsTokenEncryptedWithNestedSigning() throws Exception {
+        JwtEncryption jwtEncryption = new JwtEncryption(KEY_BASE64);
+
+        String encryptedToken = jwtEncryption.encryptAndSign(TOKEN);
+
+        assertThat(jwtEncryption.decryptAndVerify(encryptedToken), equalTo(TOKEN));
+    }
+
+    @Test
+    public void decryptAndVerifyReturnsTokenEncryptedWithoutNestedSigning() throws Exception {
+        JwtEncryption jwtEncryption = new JwtEncryption(KEY_BASE64);
+        jwtEncryption.setNestedSigning(false);
+
+        String encryptedToken = jwtEncryption.encryptAndSign(TOKEN);
+
+        assertThat(jwtEncryption.decryptAndVerify(encryptedToken), equalTo(TOKEN));
+    }
+
+    @Test
+    public void decryptAndVerifyAcceptsNestedTokenWhenNestedSigningDisabled() throws Exception {
+        String encryptedToken = new JwtEncryption(KEY_BASE64).encryptAndSign(TOKEN);
+        JwtEncryption jwtEncryption = new JwtEncryption(KEY_BASE64);
+        jwtEncryption.setNestedSigning(false);
+
+        assertThat(jwtEncryption.decryptAndVerify(encryptedToken), equalTo(TOKEN));
+    }
+
+    @Test
+    public void tokenWithoutNestedSigningIsSmaller() throws Exception {
+        JwtEncryption nestedJwtEncryption = new JwtEncryption(KEY_BASE64);
+        JwtEncryption singleLayerJwtEncryption = new JwtEncryption(KEY_BASE64);
+        singleLayerJwtEncryption.setNestedSigning(false);
+
+        int nestedLength = nestedJwtEncryption.encryptAndSign(TOKEN).length();
+        int singleLayerLength = singleLayerJwtEncryption.encryptAndSign(TOKEN).length();
+
+        assertThat(singleLayerLength, lessThan(nestedLength));
+    }
+
+    @Test
+    public void compressTokenLongerThanCompressionThreshold() throws Exception {
+        String largeToken = createLargeToken();
+        JwtEncryption jwtEncryption = new JwtEncryption(KEY_BASE64);
+        jwtEncryption.setCompressionThreshold(1024);
+
+        String encryptedToken = jwtEncryption.encryptAndSign(largeToken);
+
+        assertThat(JWEObject.parse(encryptedToken).getHeader().getCompressionAlgorithm(), equalTo(CompressionAlgorithm.DEF));
+        assertThat(encryptedToken.length(), lessThan(new JwtEncryption(KEY_BASE64).encryptAndSign(largeToken).length()));
+        assertThat(jwtEncryption.decryptAndVerify(encryptedToken), equalTo(largeToken));
+        assertThat(jwtEncryption.getCompressedTokenCount(), equalTo(1L));
+        assertThat(jwtEncryption.getCompressionRatio(), lessThan(1.0));
+    }
+
+    @Test
+    public void doNotCompressTokenShorterThanCompressionThreshold() throws Exception {
+        JwtEncryption jwtEncryption = new JwtEncryption(KEY_BASE64);
+        jwtEncryption.setCompressionThreshold(1024);
+
+        String encryptedToken = jwtEncryption.encryptAndSign(TOKEN);
+
+        assertThat(JWEObject.parse(encryptedToken).getHeader().getCompressionAlgorithm(), nullValue());
+        assertThat(jwtEncryption.getCompressedTokenCount(), equalTo(0L));
+    }
+
+    private String createLargeToken() {
+        StringBuilder builder = new StringBuilder("{\"authorities\":[");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"@class\":\"org.springframework.security.core.authority.SimpleGrantedAuthority\",\"role\":\"ROLE_")
+                    .append(i).append("\"}");
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,40 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.junit.Test;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrincipalTypeResolverTest {
+
+    @Test
+    public void allowingResolverResolvesUserAndAllowedTypes() {
+        PrincipalTypeResolver resolver = PrincipalTypeResolver.allowing(Collections.singletonList(HashMap.class));
+
+        assertThat(resolver.resolve(User.class.getName())).isEqualTo(User.class);
+        assertThat(resolver.resolve(HashMap.class.getName())).isEqualTo(HashMap.class);
+    }
+
+    @Test
+    public void allowingResolverRejectsOtherTypes() {
+        PrincipalTypeResolver resolver = PrincipalTypeResolver.allowing(Collections.<Class<?>>emptyList());
+
+        assertThat(resolver.resolve(HashMap.class.getName())).isNull();
+        assertThat(resolver.resolve("com.example.DoesNotExist")).isNull();
+    }
+
+    @Test
+    public void permissiveResolverLoadsAnyType() {
+        PrincipalTypeResolver resolver = PrincipalTypeResolver.permissive();
+
+        assertThat(resolver.resolve(HashMap.class.getName())).isEqualTo(HashMap.class);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void permissiveResolverThrowsForUnknownType() {
+        PrincipalTypeResolver.permissive().resolve("com.example.DoesNotExist");
+    }
+}
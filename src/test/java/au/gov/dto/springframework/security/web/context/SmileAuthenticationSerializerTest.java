@@ -0,0 +1,43 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class SmileAuthenticationSerializerTest {
+    @Test
+    public void serializeAndDeserializeUsernamePasswordAuthenticationTokenWithUserAsPrincipal() throws Exception {
+        AuthenticationSerializer serializer = new SmileAuthenticationSerializer();
+        UsernamePasswordAuthenticationToken authentication = createAuthentication();
+
+        String serializedAuthentication = serializer.serialize(authentication);
+        Authentication deserializedAuthentication = serializer.deserialize(serializedAuthentication);
+
+        assertThat(deserializedAuthentication.getClass(), equalTo(UsernamePasswordAuthenticationToken.class));
+        User principal = (User) deserializedAuthentication.getPrincipal();
+        assertThat(principal.getUsername(), equalTo("username"));
+        assertThat(principal.getAuthorities(), containsInAnyOrder(new SimpleGrantedAuthority("userRole1"), new SimpleGrantedAuthority("userRole2")));
+        assertThat(deserializedAuthentication.getAuthorities(), containsInAnyOrder(new SimpleGrantedAuthority("tokenRole1"), new SimpleGrantedAuthority("tokenRole2")));
+    }
+
+    private UsernamePasswordAuthenticationToken createAuthentication() {
+        List<GrantedAuthority> userAuthorities = Arrays.asList(new SimpleGrantedAuthority("userRole1"), new SimpleGrantedAuthority("userRole2"));
+        User principal = new User("username", "password", userAuthorities);
+        List<GrantedAuthority> tokenAuthorities = Arrays.asList(new SimpleGrantedAuthority("tokenRole1"), new SimpleGrantedAuthority("tokenRole2"));
+        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(principal, null, tokenAuthorities);
+        authentication.setDetails(new WebAuthenticationDetails(new MockHttpServletRequest()));
+        return authentication;
+    }
+}
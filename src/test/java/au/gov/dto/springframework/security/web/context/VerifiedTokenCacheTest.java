@@ -0,0 +1,57 @@
+package au.gov.dto.springframework.security.web.context;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class VerifiedTokenCacheTest {
+    @Test
+    public void getReturnsCachedVerifiedTokenForSameToken() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        cache.put(VerifiedTokenCache.createKey("token"), createVerifiedToken(60000));
+
+        VerifiedTokenCache.Entry entry = cache.get(VerifiedTokenCache.createKey("token"));
+
+        assertThat(entry, notNullValue());
+        assertThat(entry.getToken(), equalTo("serialized"));
+        assertThat(cache.getHitCount(), equalTo(1L));
+        assertThat(cache.getMissCount(), equalTo(0L));
+    }
+
+    @Test
+    public void getReturnsNullForUnknownToken() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        cache.put(VerifiedTokenCache.createKey("token"), createVerifiedToken(60000));
+
+        assertThat(cache.get(VerifiedTokenCache.createKey("other-token")), nullValue());
+        assertThat(cache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void getEvictsExpiredToken() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        cache.put(VerifiedTokenCache.createKey("token"), createVerifiedToken(-1000));
+
+        assertThat(cache.get(VerifiedTokenCache.createKey("token")), nullValue());
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getEvictionCount(), equalTo(1L));
+    }
+
+    @Test
+    public void putEvictsEntriesWhenMaximumSizeReached() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(5);
+        for (int i = 0; i < 20; i++) {
+            cache.put(VerifiedTokenCache.createKey("token" + i), createVerifiedToken(60000));
+        }
+
+        assertThat(cache.size(), lessThanOrEqualTo(5));
+        assertThat(cache.getEvictionCount(), greaterThan(0L));
+        assertThat(cache.get(VerifiedTokenCache.createKey("token19")), notNullValue());
+    }
+
+    private VerifiedToken createVerifiedToken(long millisUntilExpiry) {
+        long expirationTimeMillis = System.currentTimeMillis() + millisUntilExpiry;
+        return new VerifiedToken("serialized", expirationTimeMillis, expirationTimeMillis);
+    }
+}
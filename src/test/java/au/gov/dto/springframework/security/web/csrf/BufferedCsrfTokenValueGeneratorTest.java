@@ -0,0 +1,48 @@
+package au.gov.dto.springframework.security.web.csrf;
+
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class BufferedCsrfTokenValueGeneratorTest {
+    @Test
+    public void generatesDistinctBase64UrlValues() throws Exception {
+        BufferedCsrfTokenValueGenerator generator = new BufferedCsrfTokenValueGenerator();
+        generator.setBatchSize(4);
+        Set<String> tokenValues = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String tokenValue = generator.generateTokenValue();
+            assertThat(tokenValue.matches("[A-Za-z0-9_-]{24}"), equalTo(true));
+            tokenValues.add(tokenValue);
+        }
+        assertThat(tokenValues.size(), equalTo(1000));
+    }
+
+    @Test
+    public void encodesLikeUnpaddedBase64UrlEncoder() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 40; length++) {
+            byte[] bytes = new byte[length + 3];
+            random.nextBytes(bytes);
+            byte[] expectedBytes = new byte[length];
+            System.arraycopy(bytes, 3, expectedBytes, 0, length);
+            String expected = Base64.getUrlEncoder().withoutPadding().encodeToString(expectedBytes);
+
+            assertThat(BufferedCsrfTokenValueGenerator.encodeBase64Url(bytes, 3, length), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void repositoryUsesGenerator() throws Exception {
+        CookieCsrfTokenRepository csrfTokenRepository = new CookieCsrfTokenRepository();
+        csrfTokenRepository.setTokenValueGenerator(() -> "generated");
+
+        assertThat(csrfTokenRepository.generateToken(null).getToken(), equalTo("generated"));
+    }
+}
@@ -9,6 +9,7 @@ import javax.servlet.http.Cookie;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 /**
  * Some code borrowed from Pivotal Cloud Foundry under the Apache 2.0 license:
@@ -37,4 +38,51 @@ public class CookieCsrfTokenRepositoryTest {
         assertEquals(token.getHeaderName(), saved.getHeaderName());
         assertEquals(token.getParameterName(), saved.getParameterName());
     }
+
+    @Test
+    public void testSaveTokenWithSameSiteWritesSetCookieHeader() throws Exception {
+        CookieCsrfTokenRepository csrfTokenRepository = new CookieCsrfTokenRepository();
+        csrfTokenRepository.setCsrfCookiePath("/");
+        csrfTokenRepository.setCsrfCookieSameSite("Strict");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSecure(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CsrfToken token = csrfTokenRepository.generateToken(request);
+        csrfTokenRepository.saveToken(token, request, response);
+
+        assertEquals("csrf=" + token.getToken() + "; Path=/; Secure; HttpOnly; SameSite=Strict", response.getHeader("Set-Cookie"));
+    }
+
+    @Test
+    public void testDeferredTokenIsNotSavedUntilRead() throws Exception {
+        CookieCsrfTokenRepository csrfTokenRepository = new CookieCsrfTokenRepository();
+        csrfTokenRepository.setDeferTokenGeneration(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CsrfToken token = csrfTokenRepository.generateToken(request);
+        csrfTokenRepository.saveToken(token, request, response);
+
+        assertNull(response.getCookie(CookieCsrfTokenRepository.DEFAULT_CSRF_COOKIE_NAME));
+
+        String tokenValue = token.getToken();
+
+        Cookie cookie = response.getCookie(CookieCsrfTokenRepository.DEFAULT_CSRF_COOKIE_NAME);
+        assertNotNull(cookie);
+        assertEquals(tokenValue, cookie.getValue());
+        assertEquals(tokenValue, token.getToken());
+        assertEquals(1, response.getCookies().length);
+    }
+
+    @Test
+    public void testDeferredTokenReadBeforeSaveIsSavedImmediately() throws Exception {
+        CookieCsrfTokenRepository csrfTokenRepository = new CookieCsrfTokenRepository();
+        csrfTokenRepository.setDeferTokenGeneration(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CsrfToken token = csrfTokenRepository.generateToken(request);
+        String tokenValue = token.getToken();
+        csrfTokenRepository.saveToken(token, request, response);
+
+        assertEquals(tokenValue, response.getCookie(CookieCsrfTokenRepository.DEFAULT_CSRF_COOKIE_NAME).getValue());
+    }
 }
@@ -0,0 +1,131 @@
+package au.gov.dto.springframework.security.web.csrf;
+
+import au.gov.dto.springframework.security.web.context.CookieSecurityContextRepository;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.csrf.CsrfToken;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class HmacCsrfTokenRepositoryTest {
+    private static final String KEY = "Yjd1aVhlWEZ0SVBuM0dGWm5Wa0hFQjFaRXFQWU9VM0k=";
+
+    private final HmacCsrfTokenRepository csrfTokenRepository = new HmacCsrfTokenRepository(KEY);
+
+    @After
+    public void clearSecurityContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void submittedTokenIsLoadedForSameLogin() throws Exception {
+        authenticate("user");
+        CsrfToken token = csrfTokenRepository.generateToken(createRequest("GET", "login-1"));
+        MockHttpServletRequest request = createRequest("POST", "login-1");
+        request.addHeader(token.getHeaderName(), token.getToken());
+
+        CsrfToken loadedToken = csrfTokenRepository.loadToken(request);
+
+        assertThat(loadedToken.getToken(), equalTo(token.getToken()));
+    }
+
+    @Test
+    public void submittedTokenIsNotLoadedForAnotherUser() throws Exception {
+        authenticate("user");
+        CsrfToken token = csrfTokenRepository.generateToken(createRequest("GET", "login-1"));
+        authenticate("attacker");
+        MockHttpServletRequest request = createRequest("POST", "login-1");
+        request.addParameter(token.getParameterName(), token.getToken());
+
+        CsrfToken loadedToken = csrfTokenRepository.loadToken(request);
+
+        assertThat(loadedToken.getToken(), not(equalTo(token.getToken())));
+    }
+
+    @Test
+    public void submittedTokenIsNotLoadedForAnotherLoginOfSameUser() throws Exception {
+        authenticate("user");
+        CsrfToken token = csrfTokenRepository.generateToken(createRequest("GET", "login-1"));
+        MockHttpServletRequest request = createRequest("POST", "login-2");
+        request.addHeader(token.getHeaderName(), token.getToken());
+
+        CsrfToken loadedToken = csrfTokenRepository.loadToken(request);
+
+        assertThat(loadedToken.getToken(), not(equalTo(token.getToken())));
+    }
+
+    @Test
+    public void tamperedTokenIsNotLoaded() throws Exception {
+        authenticate("user");
+        CsrfToken token = csrfTokenRepository.generateToken(createRequest("GET", "login-1"));
+        String tamperedToken = "0" + token.getToken();
+        MockHttpServletRequest request = createRequest("POST", "login-1");
+        request.addHeader(token.getHeaderName(), tamperedToken);
+
+        CsrfToken loadedToken = csrfTokenRepository.loadToken(request);
+
+        assertThat(loadedToken.getToken(), not(equalTo(tamperedToken)));
+    }
+
+    @Test
+    public void expiredTokenIsNotLoaded() throws Exception {
+        authenticate("user");
+        csrfTokenRepository.setMaxTokenAgeSeconds(60);
+        CsrfToken token = csrfTokenRepository.generateToken(createRequest("GET", "login-1"));
+        String issuedTwoMinutesAgo = Long.toString(System.currentTimeMillis() - 120000L, 36);
+
+        assertThat(csrfTokenRepository.isValidToken("user\0login-1", token.getToken()), equalTo(true));
+        assertThat(csrfTokenRepository.isValidToken("user\0login-1", issuedTwoMinutesAgo + token.getToken().substring(token.getToken().indexOf('.'))), equalTo(false));
+    }
+
+    @Test
+    public void authenticatedUserGetsNoCookie() throws Exception {
+        authenticate("user");
+        MockHttpServletRequest request = createRequest("GET", "login-1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        csrfTokenRepository.saveToken(csrfTokenRepository.generateToken(request), request, response);
+
+        assertThat(response.getCookie(CookieCsrfTokenRepository.DEFAULT_CSRF_COOKIE_NAME), nullValue());
+    }
+
+    @Test
+    public void anonymousUserUsesDelegateRepository() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        csrfTokenRepository.saveToken(csrfTokenRepository.generateToken(request), request, response);
+
+        assertThat(response.getCookie(CookieCsrfTokenRepository.DEFAULT_CSRF_COOKIE_NAME), notNullValue());
+    }
+
+    @Test
+    public void authenticationWithoutTokenIdUsesDelegateRepository() throws Exception {
+        authenticate("user");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        csrfTokenRepository.saveToken(csrfTokenRepository.generateToken(request), request, response);
+
+        assertThat(response.getCookie(CookieCsrfTokenRepository.DEFAULT_CSRF_COOKIE_NAME), notNullValue());
+    }
+
+    private MockHttpServletRequest createRequest(String method, String authenticationTokenId) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/");
+        request.setAttribute(CookieSecurityContextRepository.AUTHENTICATION_TOKEN_ID_ATTRIBUTE_NAME, authenticationTokenId);
+        return request;
+    }
+
+    private void authenticate(String username) {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(username, null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+    }
+}
@@ -1,6 +1,8 @@
 package au.gov.dto.springframework.security.web.savedrequest;
 
+import au.gov.dto.servlet.http.HttpsOnlyFilter;
 import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.web.savedrequest.SavedRequest;
@@ -9,6 +11,7 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Collections;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -18,7 +21,7 @@ public class CookieRequestCacheTest {
 
     @Test
     public void saveRequestSetsSessionCookieOnResponse() throws Exception {
-        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletRequest request = createNavigationRequest();
         request.setSecure(false);
         request.setScheme("http");
         request.setServerName("example.com");
@@ -40,7 +43,7 @@ public class CookieRequestCacheTest {
 
     @Test
     public void saveRequestSetsSessionCookieOnResponseWithHttpsSchemeIfRequestSecure() throws Exception {
-        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletRequest request = createNavigationRequest();
         request.setSecure(true);
         request.setScheme("http");
         request.setServerName("example.com");
@@ -56,6 +59,28 @@ public class CookieRequestCacheTest {
         assertThat(savedUrl, equalTo("https://example.com/some/path/name?query=value&a=b"));
     }
 
+    @Test
+    public void saveRequestTakesSchemeHostAndPortFromForwardedHeaders() throws Exception {
+        MockHttpServletRequest request = createNavigationRequest();
+        request.setSecure(false);
+        request.setScheme("http");
+        request.setServerName("backend");
+        request.setServerPort(8080);
+        request.setRequestURI("/some/path/name");
+        request.setRemoteAddr("10.1.2.3");
+        request.addHeader("Forwarded", "for=203.0.113.7;proto=https;host=www.example.com");
+        HttpsOnlyFilter httpsOnlyFilter = new HttpsOnlyFilter();
+        httpsOnlyFilter.setTrustedProxies(Collections.singletonList("10.0.0.0/8"));
+        httpsOnlyFilter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        createCookieRequestCache().saveRequest(request, response);
+
+        Cookie cookie = response.getCookie(COOKIE_NAME);
+        String savedUrl = new String(Base64.getMimeDecoder().decode(cookie.getValue()), StandardCharsets.ISO_8859_1);
+        assertThat(savedUrl, equalTo("https://www.example.com/some/path/name"));
+    }
+
     @Test
     public void getRequestReturnsNullIfCookiesOnRequestAreNull() throws Exception {
         SavedRequest savedRequest = createCookieRequestCache().getRequest(new MockHttpServletRequest(), new MockHttpServletResponse());
@@ -132,9 +157,121 @@ public class CookieRequestCacheTest {
         assertThat(expiredSavedRequestCookie.getMaxAge(), equalTo(0));
     }
 
+    @Test
+    public void fastSavedRequestUrlIsBase64UrlEncoded() throws Exception {
+        MockHttpServletRequest request = createNavigationRequest();
+        request.setSecure(false);
+        request.setServerName("example.com");
+        request.setServerPort(8080);
+        request.setRequestURI("/some/path/name");
+        request.setQueryString("query=value&a=b");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CookieRequestCache requestCache = createCookieRequestCache();
+        requestCache.setFastSavedRequestUrl(true);
+
+        requestCache.saveRequest(request, response);
+
+        String savedUrl = new String(Base64.getUrlDecoder().decode(response.getCookie(COOKIE_NAME).getValue()), StandardCharsets.US_ASCII);
+        assertThat(savedUrl, equalTo("http://example.com:8080/some/path/name?query=value&a=b"));
+    }
+
+    @Test
+    public void fastSavedRequestUrlPercentEncodesNonAsciiCharactersAsUtf8() throws Exception {
+        MockHttpServletRequest request = createNavigationRequest();
+        request.setSecure(true);
+        request.setServerName("example.com");
+        request.setServerPort(443);
+        request.setRequestURI("/caf\u00e9/\u4e2d");
+        request.setQueryString("q=a b");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CookieRequestCache requestCache = createCookieRequestCache();
+        requestCache.setFastSavedRequestUrl(true);
+
+        requestCache.saveRequest(request, response);
+        request.setCookies(response.getCookie(COOKIE_NAME));
+        SavedRequest savedRequest = requestCache.getRequest(request, new MockHttpServletResponse());
+
+        assertThat(savedRequest.getRedirectUrl(), equalTo("https://example.com/caf%C3%A9/%E4%B8%AD?q=a%20b"));
+    }
+
+    @Test
+    public void fastSavedRequestUrlDropsQueryStringWhenTooLong() throws Exception {
+        MockHttpServletRequest request = createNavigationRequest();
+        request.setServerName("example.com");
+        request.setServerPort(80);
+        request.setRequestURI("/path");
+        request.setQueryString("q=" + new String(new char[100]).replace('\0', 'x'));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CookieRequestCache requestCache = createCookieRequestCache();
+        requestCache.setFastSavedRequestUrl(true);
+        requestCache.setMaxSavedRequestUrlLength(50);
+
+        requestCache.saveRequest(request, response);
+        request.setCookies(response.getCookie(COOKIE_NAME));
+
+        assertThat(requestCache.getRequest(request, response).getRedirectUrl(), equalTo("http://example.com/path"));
+    }
+
+    @Test
+    public void fastSavedRequestUrlIsNotSavedWhenPathTooLong() throws Exception {
+        MockHttpServletRequest request = createNavigationRequest();
+        request.setServerName("example.com");
+        request.setRequestURI("/" + new String(new char[100]).replace('\0', 'x'));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CookieRequestCache requestCache = createCookieRequestCache();
+        requestCache.setFastSavedRequestUrl(true);
+        requestCache.setMaxSavedRequestUrlLength(50);
+
+        requestCache.saveRequest(request, response);
+
+        assertThat(response.getCookie(COOKIE_NAME), nullValue());
+    }
+
+    @Test
+    public void getRequestReadsBase64UrlCookie() throws Exception {
+        CookieRequestCache requestCache = createCookieRequestCache();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        String savedUrl = "https://example.com/a?b=~~~";
+        String encodedUrl = Base64.getUrlEncoder().withoutPadding().encodeToString(savedUrl.getBytes(StandardCharsets.US_ASCII));
+        request.setCookies(new Cookie(COOKIE_NAME, encodedUrl));
+
+        SavedRequest savedRequest = requestCache.getRequest(request, new MockHttpServletResponse());
+
+        assertThat(encodedUrl, containsString("-"));
+        assertThat(savedRequest.getRedirectUrl(), equalTo(savedUrl));
+    }
+
+    @Test
+    public void saveRequestDoesNotSaveRequestsThatAreNotNavigations() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/favicon.ico");
+        request.addHeader("Accept", "image/webp,image/*,*/*;q=0.8");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        createCookieRequestCache().saveRequest(request, response);
+
+        assertThat(response.getCookie(COOKIE_NAME), nullValue());
+    }
+
+    @Test
+    public void getMatchingRequestSetsExpiredCookieWithoutDecodingSavedRequestCookie() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(COOKIE_NAME, "not base64!"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        createCookieRequestCache().getMatchingRequest(request, response);
+
+        assertThat(response.getCookie(COOKIE_NAME).getMaxAge(), equalTo(0));
+    }
+
     private CookieRequestCache createCookieRequestCache() {
         CookieRequestCache cookieRequestCache = new CookieRequestCache();
         cookieRequestCache.setSavedRequestCookieName(COOKIE_NAME);
         return cookieRequestCache;
     }
+
+    private MockHttpServletRequest createNavigationRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
+        request.addHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        return request;
+    }
 }
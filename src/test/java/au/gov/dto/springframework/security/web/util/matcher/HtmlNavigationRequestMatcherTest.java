@@ -0,0 +1,46 @@
+package au.gov.dto.springframework.security.web.util.matcher;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HtmlNavigationRequestMatcherTest {
+    private final HtmlNavigationRequestMatcher matcher = new HtmlNavigationRequestMatcher();
+
+    @Test
+    public void matchesGetRequestAcceptingHtml() throws Exception {
+        assertTrue(matcher.matches(createRequest("GET", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")));
+        assertTrue(matcher.matches(createRequest("GET", "Text/HTML")));
+    }
+
+    @Test
+    public void doesNotMatchOtherMethods() throws Exception {
+        assertFalse(matcher.matches(createRequest("POST", "text/html")));
+        assertFalse(matcher.matches(createRequest("HEAD", "text/html")));
+    }
+
+    @Test
+    public void doesNotMatchRequestsNotAcceptingHtml() throws Exception {
+        assertFalse(matcher.matches(createRequest("GET", null)));
+        assertFalse(matcher.matches(createRequest("GET", "application/json")));
+        assertFalse(matcher.matches(createRequest("GET", "*/*")));
+    }
+
+    @Test
+    public void doesNotMatchXmlHttpRequests() throws Exception {
+        MockHttpServletRequest request = createRequest("GET", "text/html");
+        request.addHeader("X-Requested-With", "XMLHttpRequest");
+
+        assertFalse(matcher.matches(request));
+    }
+
+    private MockHttpServletRequest createRequest(String method, String accept) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/");
+        if (accept != null) {
+            request.addHeader("Accept", accept);
+        }
+        return request;
+    }
+}
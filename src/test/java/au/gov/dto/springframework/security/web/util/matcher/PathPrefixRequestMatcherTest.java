@@ -0,0 +1,53 @@
+package au.gov.dto.springframework.security.web.util.matcher;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PathPrefixRequestMatcherTest {
+    private final PathPrefixRequestMatcher matcher = new PathPrefixRequestMatcher(Arrays.asList("/static/", "/health", "/metrics"));
+
+    @Test
+    public void matchesPathsStartingWithPrefixEndingInSlash() throws Exception {
+        assertTrue(matcher.matches(createRequest("/static/css/app.css", null)));
+        assertFalse(matcher.matches(createRequest("/static", null)));
+        assertFalse(matcher.matches(createRequest("/staticfile", null)));
+    }
+
+    @Test
+    public void matchesExactPathAndPathsBelowPrefix() throws Exception {
+        assertTrue(matcher.matches(createRequest("/health", null)));
+        assertTrue(matcher.matches(createRequest("/health/db", null)));
+        assertFalse(matcher.matches(createRequest("/healthcheck", null)));
+        assertFalse(matcher.matches(createRequest("/", null)));
+        assertFalse(matcher.matches(createRequest("/login", null)));
+    }
+
+    @Test
+    public void matchesAcrossServletPathAndPathInfo() throws Exception {
+        assertTrue(matcher.matches(createRequest("", "/metrics")));
+        assertTrue(matcher.matches(createRequest("/static", "/js/app.js")));
+        assertFalse(matcher.matches(createRequest("/app", "/health")));
+    }
+
+    @Test
+    public void matchesOnlyGivenHttpMethod() throws Exception {
+        PathPrefixRequestMatcher getMatcher = new PathPrefixRequestMatcher("GET", Arrays.asList("/health"));
+        MockHttpServletRequest postRequest = createRequest("/health", null);
+        postRequest.setMethod("POST");
+
+        assertTrue(getMatcher.matches(createRequest("/health", null)));
+        assertFalse(getMatcher.matches(postRequest));
+    }
+
+    private MockHttpServletRequest createRequest(String servletPath, String pathInfo) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", servletPath + (pathInfo != null ? pathInfo : ""));
+        request.setServletPath(servletPath);
+        request.setPathInfo(pathInfo);
+        return request;
+    }
+}
@@ -105,4 +105,15 @@ public class UserDeserializerTests extends AbstractMixinTests {
         assertThat(user.getUsername()).isEqualTo("user");
         assertThat(user.getAuthorities()).hasSize(1).contains(new SimpleGrantedAuthority("ROLE_USER"));
     }
+
+    @Test
+    public void deserializedUsersShareAuthorityInstances() throws IOException {
+        ObjectMapper mapper = buildObjectMapper();
+        String userJson = mapper.writeValueAsString(new User("admin", "1234", Collections.singletonList(new SimpleGrantedAuthority("USER_ROLE"))));
+
+        User first = mapper.readValue(userJson, User.class);
+        User second = mapper.readValue(userJson, User.class);
+
+        assertThat(second.getAuthorities().iterator().next()).isSameAs(first.getAuthorities().iterator().next());
+    }
 }
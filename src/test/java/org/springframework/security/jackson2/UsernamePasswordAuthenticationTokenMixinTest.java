@@ -193,4 +193,22 @@ public class UsernamePasswordAuthenticationTokenMixinTest extends AbstractMixinT
         assertThat(token.isAuthenticated()).isEqualTo(true);
         assertThat(token.getAuthorities()).hasSize(1).contains(new SimpleGrantedAuthority("ROLE_USER"));
     }
+
+    @Test
+    public void deserializeUsernamePasswordAuthenticationTokenWithTypeIdsAfterOtherProperties() throws IOException {
+        String tokenJson = "{\"@class\": \"org.springframework.security.authentication.UsernamePasswordAuthenticationToken\"," +
+                "\"principal\": {\"username\": \"user\", \"password\": \"pass\", \"accountNonExpired\": true, \"enabled\": true, " +
+                "\"accountNonLocked\": true, \"credentialsNonExpired\": true, \"authorities\": [\"java.util.Collections$UnmodifiableSet\"," +
+                "[{\"role\": \"ROLE_USER\", \"@class\": \"org.springframework.security.core.authority.SimpleGrantedAuthority\"}]], " +
+                "\"@class\": \"org.springframework.security.core.userdetails.User\"}, \"credentials\": \"pass\"," +
+                "\"details\": null, \"name\": \"user\", \"authenticated\": true," +
+                "\"authorities\": [\"java.util.ArrayList\", [{\"role\": \"ROLE_USER\", \"@class\": \"org.springframework.security.core.authority.SimpleGrantedAuthority\"}]]}";
+
+        UsernamePasswordAuthenticationToken token = buildObjectMapper().readValue(tokenJson, UsernamePasswordAuthenticationToken.class);
+
+        assertThat(token.getPrincipal()).isInstanceOf(User.class);
+        assertThat(((User) token.getPrincipal()).getUsername()).isEqualTo("user");
+        assertThat(((User) token.getPrincipal()).getAuthorities()).hasSize(1).contains(new SimpleGrantedAuthority("ROLE_USER"));
+        assertThat(token.getAuthorities()).hasSize(1).contains(new SimpleGrantedAuthority("ROLE_USER"));
+    }
 }